@@ -47,10 +47,26 @@ val run by tasks.getting(JavaExec::class) {
 tasks {
     test {
         maxHeapSize = "256m"
-        useJUnitPlatform()
+        useJUnitPlatform {
+            excludeTags("benchmark")
+        }
     }
 }
 
+// The benchmarks report the numbers instead of asserting them, so they run on demand only
+val benchmark by tasks.registering(Test::class) {
+    description = "Runs the benchmarks excluded from the test task."
+    group = "verification"
+    testClassesDirs = sourceSets["test"].output.classesDirs
+    classpath = sourceSets["test"].runtimeClasspath
+    maxHeapSize = "256m"
+    useJUnitPlatform {
+        includeTags("benchmark")
+    }
+    testLogging.showStandardStreams = true
+    outputs.upToDateWhen { false }
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Cluster"
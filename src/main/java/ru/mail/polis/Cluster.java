@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.StorageConfig;
 import ru.mail.polis.service.Service;
 import ru.mail.polis.service.ServiceFactory;
 
@@ -59,7 +60,10 @@ public final class Cluster {
         for (int i = 0; i < PORTS.length; i++) {
             final int port = PORTS[i];
             final File data = Files.createTempDirectory();
-            final DAO dao = DAOFactory.create(data);
+            final StorageConfig config = StorageConfig.builder()
+                    .durability(StorageConfig.Durability.GROUP_COMMIT)
+                    .build();
+            final DAO dao = DAOFactory.create(data, config);
 
             log.info("Starting node {} on port {} and data at {}", i, port, data);
 
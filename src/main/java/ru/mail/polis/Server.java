@@ -22,6 +22,7 @@ import java.util.Collections;
 
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.StorageConfig;
 import ru.mail.polis.service.Service;
 import ru.mail.polis.service.ServiceFactory;
 
@@ -48,7 +49,10 @@ public final class Server {
         final File data = Files.createTempDirectory();
 
         // Start the service
-        final DAO dao = DAOFactory.create(data);
+        final StorageConfig config = StorageConfig.builder()
+                .durability(StorageConfig.Durability.GROUP_COMMIT)
+                .build();
+        final DAO dao = DAOFactory.create(data, config);
         final Service service =
                 ServiceFactory.create(
                         PORT,
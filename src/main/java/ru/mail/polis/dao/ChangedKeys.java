@@ -0,0 +1,83 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keys of the records with timestamp written or purged since they were drained last time.
+ * The amount of the keys is bounded, the ones over it turn the next drain into the rescan of all the keys.
+ */
+public final class ChangedKeys {
+    private final int maxKeys;
+    private final Set<ByteBuffer> keys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger size = new AtomicInteger();
+    // All the keys are rescanned first, so the existing ones are covered
+    private final AtomicBoolean overflowed = new AtomicBoolean(true);
+
+    /**
+     * Create the tracker.
+     *
+     * @param maxKeys to specify the amount of the keys kept between the drains
+     */
+    ChangedKeys(final int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Mark the key changed, it must be called after the record is written.
+     *
+     * @param key to specify the key
+     */
+    void mark(@NotNull final ByteBuffer key) {
+        if (overflowed.get()) {
+            return;
+        }
+        if (size.get() >= maxKeys) {
+            overflowed.set(true);
+            return;
+        }
+        if (keys.add(copy(key))) {
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * Take the keys changed since the previous drain.
+     * The keys are removed before they are returned, so the writes completed after that mark them again.
+     *
+     * @return changed keys or {@code null} if there were too many of them and all the keys have to be rescanned
+     */
+    @Nullable
+    public List<ByteBuffer> drain() {
+        if (overflowed.get()) {
+            // The keys aren't marked until the flag is reset, so none of them is lost with the clear
+            keys.clear();
+            size.set(0);
+            overflowed.set(false);
+            return null;
+        }
+        final List<ByteBuffer> drained = new ArrayList<>();
+        for (final Iterator<ByteBuffer> iterator = keys.iterator(); iterator.hasNext();) {
+            drained.add(iterator.next());
+            iterator.remove();
+            size.decrementAndGet();
+        }
+        return drained;
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer key) {
+        final byte[] array = new byte[key.remaining()];
+        key.duplicate().get(array);
+        return ByteBuffer.wrap(array);
+    }
+}
@@ -23,7 +23,11 @@ import ru.mail.polis.Record;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -65,6 +69,22 @@ public interface DAO extends Closeable {
         return Iters.until(iterator(from), bound);
     }
 
+    /**
+     * Provides iterator (possibly empty) over {@link Record}s starting at "from" key (inclusive)
+     * until given "to" key (exclusive) in <b>descending</b> order according to {@link Record#compareTo(Record)}.
+     * N.B. The default implementation reads the whole range, one should start from the "to" element
+     * so that reading the last records doesn't depend on the range size.
+     */
+    @NotNull
+    default Iterator<Record> descendingRange(
+            @NotNull ByteBuffer from,
+            @Nullable ByteBuffer to) throws IOException {
+        final List<Record> records = new ArrayList<>();
+        range(from, to).forEachRemaining(records::add);
+        Collections.reverse(records);
+        return records.iterator();
+    }
+
     /**
      * Obtains {@link Record} corresponding to given key.
      *
@@ -92,6 +112,33 @@ public interface DAO extends Closeable {
             @NotNull ByteBuffer key,
             @NotNull ByteBuffer value) throws IOException;
 
+    /**
+     * Inserts or updates all the given records at once.
+     */
+    default void upsertAll(@NotNull Collection<Record> records) throws IOException {
+        for (final Record record : records) {
+            upsert(record.getKey(), record.getValue());
+        }
+    }
+
+    /**
+     * Obtains values for all the given keys at once.
+     *
+     * @return values in the order of keys, {@code null} for the absent ones
+     */
+    @NotNull
+    default List<ByteBuffer> getAll(@NotNull List<ByteBuffer> keys) throws IOException {
+        final List<ByteBuffer> values = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            try {
+                values.add(get(key));
+            } catch (NoSuchElementException e) {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+
     /**
      * Removes value by given key.
      */
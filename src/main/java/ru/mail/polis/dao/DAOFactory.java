@@ -41,6 +41,18 @@ public final class DAOFactory {
      */
     @NotNull
     public static DAO create(@NotNull final File data) throws IOException {
+        return create(data, StorageConfig.builder().build());
+    }
+
+    /**
+     * Construct a {@link DAO} instance with the tuned storage.
+     *
+     * @param data local disk folder to persist the data to
+     * @param config storage options
+     * @return a storage instance
+     */
+    @NotNull
+    public static DAO create(@NotNull final File data, @NotNull final StorageConfig config) throws IOException {
         if (Runtime.getRuntime().maxMemory() > MAX_HEAP) {
             throw new IllegalStateException("The heap is too big. Consider setting Xmx.");
         }
@@ -53,6 +65,6 @@ public final class DAOFactory {
             throw new IllegalArgumentException("Path is not a directory: " + data);
         }
 
-        return DAORocksDB.create(data);
+        return DAORocksDB.create(data, config);
     }
 }
@@ -1,6 +1,7 @@
 package ru.mail.polis.dao;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import org.rocksdb.RocksDB;
 import org.rocksdb.WriteOptions;
@@ -9,6 +10,16 @@ import org.rocksdb.RocksDBException;
 import org.rocksdb.Options;
 import org.rocksdb.CompressionType;
 import org.rocksdb.BuiltinComparator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.IndexType;
+import org.rocksdb.LRUCache;
+import org.rocksdb.RocksObject;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.Slice;
+import org.rocksdb.Statistics;
+import org.rocksdb.TickerType;
 
 import ru.mail.polis.Record;
 
@@ -16,18 +27,63 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class DAORocksDB implements DAO {
-    private final RocksDB mdb;
+    private static final int KEY_BUFFER_SIZE = 64;
+    private static final ThreadLocal<byte[]> KEY_BUFFER = ThreadLocal.withInitial(() -> new byte[KEY_BUFFER_SIZE]);
+    private static final int KEY_LOCK_STRIPES = 1024;
+    private static final long RANGE_READAHEAD_BYTES = 2 * 1024 * 1024;
+    private static final String HINTS_SUFFIX = "-hints";
+    private static final String DIGESTS_SUFFIX = "-digests";
+    private static final int MAX_CHANGED_KEYS = 1 << 18;
 
-    private static WriteOptions wOptions;
-    private final Object objLock = new Object();
+    private final RocksDB mdb;
+    private final WriteOptions wOptions;
+    @Nullable
+    private final ReadCache cache;
+    @Nullable
+    private final GroupCommit groupCommit;
+    private final List<RocksObject> resources;
+    @Nullable
+    private final Statistics statistics;
+    private final KeyLocks locks = new KeyLocks(KEY_LOCK_STRIPES);
+    private final long gcGraceMillis;
+    private final AtomicLong purgedExpired = new AtomicLong();
+    private final AtomicLong purgedTombstones = new AtomicLong();
+    private final ChangedKeys changes = new ChangedKeys(MAX_CHANGED_KEYS);
+    private final PurgeSchedule purgeSchedule = new PurgeSchedule();
+    private final File hintsDir;
+    private final File digestsDir;
+    private final long maxHintBytes;
+    @Nullable
+    private HintStore hints;
+    @Nullable
+    private DigestIndex digests;
 
-    private DAORocksDB(final RocksDB db) {
+    private DAORocksDB(final RocksDB db, final WriteOptions wOptions, final StorageConfig config,
+                       final List<RocksObject> resources, @Nullable final Statistics statistics, final File data) {
         this.mdb = db;
+        this.wOptions = wOptions;
+        this.cache = config.getReadCacheBytes() > 0 ? new ReadCache(config.getReadCacheBytes()) : null;
+        this.groupCommit = config.getDurability() == StorageConfig.Durability.GROUP_COMMIT
+                ? new GroupCommit(db, config.getGroupCommitWindowMicros())
+                : null;
+        this.gcGraceMillis = TimeUnit.SECONDS.toMillis(config.getGcGraceSeconds());
+        this.resources = resources;
+        this.statistics = statistics;
+        this.hintsDir = hintsDirectory(data);
+        this.digestsDir = digestsDirectory(data);
+        this.maxHintBytes = config.getMaxHintBytes();
     }
 
     public static class RocksDBRecordIterator implements Iterator<Record>, AutoCloseable {
@@ -48,8 +104,7 @@ public final class DAORocksDB implements DAO {
             if (!hasNext()) {
                 throw new IllegalStateException("Iterator is not viable!");
             }
-            final var keyByteArray = iterator.key();
-            final ByteBuffer unpackedKey = compressKey(keyByteArray);
+            final ByteBuffer unpackedKey = compressKey(iterator.key());
             final var valueByteArray = iterator.value();
             final var value = ByteBuffer.wrap(valueByteArray);
             final var record = Record.of(unpackedKey, value);
@@ -63,6 +118,125 @@ public final class DAORocksDB implements DAO {
         }
     }
 
+    /**
+     * Iterator over the records of the cursor wrapping the arrays read by JNI.
+     */
+    private static final class CursorRecordIterator implements Iterator<Record>, AutoCloseable {
+        private final RecordCursor cursor;
+        private boolean hasNext;
+
+        CursorRecordIterator(@NotNull final RecordCursor cursor) throws IOException {
+            this.cursor = cursor;
+            this.hasNext = cursor.advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        @Override
+        public Record next() throws IllegalStateException {
+            if (!hasNext) {
+                throw new IllegalStateException("Iterator is not viable!");
+            }
+            final ByteBuffer value = ByteBuffer.wrap(cursor.value(), cursor.valueOffset(), cursor.valueLength());
+            final Record record = Record.of(ByteBuffer.wrap(cursor.key()), value.slice());
+            try {
+                hasNext = cursor.advance();
+            } catch (IOException e) {
+                throw new IllegalStateException("Range exception!", e);
+            }
+            return record;
+        }
+
+        @Override
+        public void close() {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Cursor over the arrays read by JNI, the keys are unpacked in place and the values are exposed as they are stored.
+     */
+    private static final class RangeCursor implements RecordCursor {
+        private final ReadOptions readOptions;
+        @Nullable
+        private final Slice bound;
+        private final RocksIterator iterator;
+        private final boolean descending;
+        private boolean started;
+        private byte[] key;
+        private byte[] value;
+
+        RangeCursor(@NotNull final ReadOptions readOptions, @Nullable final Slice bound,
+                    @NotNull final RocksIterator iterator, final boolean descending) {
+            this.readOptions = readOptions;
+            this.bound = bound;
+            this.iterator = iterator;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean advance() throws IOException {
+            if (started) {
+                move();
+            }
+            started = true;
+            // RocksDB stops at the bound itself
+            if (iterator.isValid()) {
+                key = unflipSigns(iterator.key());
+                value = iterator.value();
+                return true;
+            }
+            try {
+                iterator.status();
+            } catch (RocksDBException e) {
+                throw new DAOException("Range exception!", e);
+            }
+            return false;
+        }
+
+        private void move() {
+            if (descending) {
+                iterator.prev();
+            } else {
+                iterator.next();
+            }
+        }
+
+        @NotNull
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        @NotNull
+        @Override
+        public byte[] value() {
+            return value;
+        }
+
+        @Override
+        public int valueOffset() {
+            return 0;
+        }
+
+        @Override
+        public int valueLength() {
+            return value.length;
+        }
+
+        @Override
+        public void close() {
+            iterator.close();
+            readOptions.close();
+            if (bound != null) {
+                bound.close();
+            }
+        }
+    }
+
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) {
@@ -75,17 +249,15 @@ public final class DAORocksDB implements DAO {
     @NotNull
     @Override
     public ByteBuffer get(@NotNull final ByteBuffer keys) throws IOException, NoSuchElementException {
-        synchronized (objLock) {
-            try {
-                final byte[] packedKey = decompressKey(keys);
-                final byte[] valueByteArray = mdb.get(packedKey);
-                if (valueByteArray == null) {
-                    throw new NoSuchElementException("Key is not present!");
-                }
-                return ByteBuffer.wrap(valueByteArray);
-            } catch (RocksDBException e) {
-                throw new DAOException("Get method exception!", e);
+        try {
+            final byte[] packedKey = packKey(keys);
+            final byte[] valueByteArray = mdb.get(packedKey, 0, keys.remaining());
+            if (valueByteArray == null) {
+                throw new NoSuchElementException("Key is not present!");
             }
+            return ByteBuffer.wrap(valueByteArray);
+        } catch (RocksDBException e) {
+            throw new DAOException("Get method exception!", e);
         }
     }
     
@@ -99,28 +271,148 @@ public final class DAORocksDB implements DAO {
     @NotNull
     public TimestampRecord getRecordWithTimestamp(@NotNull final ByteBuffer keys)
             throws IOException, NoSuchElementException {
+        if (cache != null) {
+            final TimestampRecord cached = cache.get(keys);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final long version = cache == null ? 0 : cache.version(keys);
         try {
-            final byte[] packedKey = decompressKey(keys);
-            final byte[] valueByteArray = mdb.get(packedKey);
-            return TimestampRecord.fromBytes(valueByteArray);
+            final byte[] packedKey = packKey(keys);
+            final byte[] valueByteArray = mdb.get(packedKey, 0, keys.remaining());
+            final TimestampRecord record = TimestampRecord.fromBytes(valueByteArray);
+            if (cache != null) {
+                cache.load(keys, record, version);
+            }
+            return record;
         } catch (RocksDBException exception) {
             throw new DAOException("Error while get", exception);
         }
     }
 
+    /**
+    *Get the values in the range as they are stored without copying them out of the arrays read by JNI,
+    *so the records with timestamp come encoded including tombstones and expired records.
+    *
+    *@param from to specify the first key (inclusive)
+    *@param to to specify the last key (exclusive), {@code null} for no bound
+    *@return cursor over the stored values
+    */
+    @NotNull
+    public RecordCursor recordRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        return recordRange(from, to, false);
+    }
+
+    /**
+    *Get the values in the range as they are stored without copying them out of the arrays read by JNI.
+    *
+    *@param from to specify the first key (inclusive)
+    *@param to to specify the last key (exclusive), {@code null} for no bound
+    *@param descending to start from the last key, so that the last records are read without the whole range
+    *@return cursor over the stored values
+    */
+    @NotNull
+    public RecordCursor recordRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to,
+                                    final boolean descending) {
+        return cursor(from, to, descending);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> descendingRange(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to)
+            throws IOException {
+        return new CursorRecordIterator(recordRange(from, to, true));
+    }
+
+    @NotNull
+    private RecordCursor cursor(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to,
+                                final boolean descending) {
+        // The scans read the blocks sequentially and don't evict the blocks of the point reads
+        final ReadOptions readOptions = new ReadOptions()
+                .setFillCache(false)
+                .setReadaheadSize(RANGE_READAHEAD_BYTES);
+        final Slice bound;
+        if (descending) {
+            bound = new Slice(decompressKey(from));
+            readOptions.setIterateLowerBound(bound);
+        } else {
+            bound = to == null ? null : new Slice(decompressKey(to));
+            if (bound != null) {
+                readOptions.setIterateUpperBound(bound);
+            }
+        }
+        final RocksIterator iterator = mdb.newIterator(readOptions);
+        if (descending) {
+            seekLast(iterator, to);
+        } else {
+            iterator.seek(decompressKey(from));
+        }
+        return new RangeCursor(readOptions, bound, iterator, descending);
+    }
+
+    private static void seekLast(@NotNull final RocksIterator iterator, @Nullable final ByteBuffer to) {
+        if (to == null) {
+            iterator.seekToLast();
+            return;
+        }
+        final byte[] packedTo = decompressKey(to);
+        iterator.seekForPrev(packedTo);
+        // The last key is exclusive, so only the key the iterator starts from may be equal to it
+        if (iterator.isValid() && Arrays.equals(iterator.key(), packedTo)) {
+            iterator.prev();
+        }
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer keys, @NotNull final ByteBuffer values) throws IOException {
-        synchronized (objLock) {
-            try {
-                final byte[] packedKey = decompressKey(keys);
+        try {
+            final byte[] packedKey = packKey(keys);
+            if (values.hasArray()) {
+                mdb.put(wOptions, packedKey, 0, keys.remaining(),
+                        values.array(), values.arrayOffset() + values.position(), values.remaining());
+            } else {
                 final byte[] arrayValue = copyAndExtractFromByteBuffer(values);
-                mdb.put(wOptions, packedKey, arrayValue);
-            } catch (RocksDBException e) {
-                throw new DAOException("Upsert method exception!", e);
+                mdb.put(wOptions, packedKey, 0, keys.remaining(), arrayValue, 0, arrayValue.length);
             }
+        } catch (RocksDBException e) {
+            throw new DAOException("Upsert method exception!", e);
         }
+        awaitDurable();
     }
     
+    @Override
+    public void upsertAll(@NotNull final Collection<Record> records) throws IOException {
+        try (WriteBatch batch = new WriteBatch()) {
+            for (final Record record : records) {
+                batch.put(decompressKey(record.getKey()), copyAndExtractFromByteBuffer(record.getValue()));
+            }
+            mdb.write(wOptions, batch);
+        } catch (RocksDBException e) {
+            throw new DAOException("Batch upsert exception!", e);
+        }
+        awaitDurable();
+    }
+
+    @NotNull
+    @Override
+    public List<ByteBuffer> getAll(@NotNull final List<ByteBuffer> keys) throws IOException {
+        final List<byte[]> packedKeys = new ArrayList<>(keys.size());
+        for (final ByteBuffer key : keys) {
+            packedKeys.add(decompressKey(key));
+        }
+        try {
+            final List<byte[]> valueByteArrays = mdb.multiGetAsList(packedKeys);
+            final List<ByteBuffer> values = new ArrayList<>(valueByteArrays.size());
+            for (final byte[] valueByteArray : valueByteArrays) {
+                values.add(valueByteArray == null ? null : ByteBuffer.wrap(valueByteArray));
+            }
+            return values;
+        } catch (RocksDBException e) {
+            throw new DAOException("Batch get exception!", e);
+        }
+    }
+
     /**
     *Upsert record form db with timestamp.
     *
@@ -128,24 +420,148 @@ public final class DAORocksDB implements DAO {
     */
     public void upsertRecordWithTimestamp(@NotNull final ByteBuffer keys,
                                           @NotNull final ByteBuffer values) throws IOException {
+        upsertRecordWithTimestamp(keys, values, TimestampRecord.NEVER);
+    }
+
+    /**
+    *Upsert record form db with timestamp and TTL.
+    *
+    *@param keys to identify record
+    *@param values to store
+    *@param expiresAt to specify the expiration time or {@link TimestampRecord#NEVER}
+    *@throws IOException in case of upsert error
+    */
+    public void upsertRecordWithTimestamp(@NotNull final ByteBuffer keys, @NotNull final ByteBuffer values,
+                                          final long expiresAt) throws IOException {
+        writeRecordWithTimestamp(keys, TimestampRecord.fromValue(values, TimestampRecord.now(), expiresAt));
+    }
+
+    /**
+    *Write the record with the timestamp it was created with unless the stored record is later,
+    *so that the replica writes delivered out of order keep the last one.
+    *
+    *@param keys to identify record
+    *@param record to write, either a value or a tombstone
+    *@throws IOException in case of write error
+    */
+    public void writeRecordWithTimestamp(@NotNull final ByteBuffer keys,
+                                         @NotNull final TimestampRecord record) throws IOException {
+        mergeRecordWithTimestamp(keys, record);
+        // The stored record may be later but not durable yet, so the sync is awaited either way
+        awaitDurable();
+    }
+
+    /**
+    *Write the record with the timestamp it was created with unless the stored record is later,
+    *so that the stale replica catches up without overwriting a later write.
+    *
+    *@param keys to identify record
+    *@param record to write
+    *@return {@code true} if the stored record is replaced
+    *@throws IOException in case of get or write error
+    */
+    public boolean mergeRecordWithTimestamp(@NotNull final ByteBuffer keys,
+                                            @NotNull final TimestampRecord record) throws IOException {
+        final byte[] arrayValue = record.toBytes();
+        final int stripe = locks.stripe(keys);
+        locks.lock(stripe);
         try {
-            final var record = TimestampRecord.fromValue(values, System.currentTimeMillis());
-            final byte[] packedKey = decompressKey(keys);
-            final byte[] arrayValue = record.toBytes();
-            mdb.put(wOptions, packedKey, arrayValue);
+            final byte[] packedKey = packKey(keys);
+            final TimestampRecord current = TimestampRecord.fromBytes(mdb.get(packedKey, 0, keys.remaining()));
+            if (isKept(current, record)) {
+                return false;
+            }
+            mdb.put(wOptions, packedKey, 0, keys.remaining(), arrayValue, 0, arrayValue.length);
+            // Cache the compact copy rather than the record backed by the request body
+            written(keys, TimestampRecord.fromBytes(arrayValue));
         } catch (RocksDBException e) {
-            throw new DAOException("Upsert method exception!", e);
+            throw new DAOException("Merge method exception!", e);
+        } finally {
+            locks.unlock(stripe);
+        }
+        // The merged records are already durable on the other replicas, so the WAL sync isn't awaited
+        return true;
+    }
+
+    /**
+    *Write records with the timestamps they were created with in one batch,
+    *every record is written unless the stored one or another record of the same key in the batch is later.
+    *
+    *@param keys to identify records
+    *@param records to write in the order of keys
+    *@throws IOException in case of write error
+    */
+    public void writeRecordsWithTimestamp(@NotNull final List<ByteBuffer> keys,
+                                          @NotNull final List<TimestampRecord> records) throws IOException {
+        final Map<ByteBuffer, TimestampRecord> latest = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            latest.merge(keys.get(i), records.get(i),
+                    (current, record) -> isKept(current, record) ? current : record);
+        }
+        final List<ByteBuffer> batchKeys = new ArrayList<>(latest.keySet());
+        final List<byte[]> packedKeys = new ArrayList<>(batchKeys.size());
+        for (final ByteBuffer key : batchKeys) {
+            packedKeys.add(decompressKey(key));
+        }
+        // The stripes are locked in order, so the batches sharing them don't deadlock
+        final int[] stripes = batchKeys.stream().mapToInt(locks::stripe).sorted().distinct().toArray();
+        for (final int stripe : stripes) {
+            locks.lock(stripe);
+        }
+        try (WriteBatch batch = new WriteBatch()) {
+            final List<byte[]> stored = mdb.multiGetAsList(packedKeys);
+            final List<ByteBuffer> writtenKeys = new ArrayList<>(batchKeys.size());
+            final List<byte[]> arrayValues = new ArrayList<>(batchKeys.size());
+            for (int i = 0; i < batchKeys.size(); i++) {
+                final TimestampRecord record = latest.get(batchKeys.get(i));
+                if (isKept(TimestampRecord.fromBytes(stored.get(i)), record)) {
+                    continue;
+                }
+                final byte[] arrayValue = record.toBytes();
+                batch.put(packedKeys.get(i), arrayValue);
+                writtenKeys.add(batchKeys.get(i));
+                arrayValues.add(arrayValue);
+            }
+            mdb.write(wOptions, batch);
+            for (int i = 0; i < writtenKeys.size(); i++) {
+                written(writtenKeys.get(i), TimestampRecord.fromBytes(arrayValues.get(i)));
+            }
+        } catch (RocksDBException e) {
+            throw new DAOException("Batch write exception!", e);
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                locks.unlock(stripes[i]);
+            }
+        }
+        awaitDurable();
+    }
+
+    /**
+     * Check if the stored record has to be kept: it is either the written one or a later one.
+     * Another record written at the same time replaces the stored one,
+     * so the writes a node makes one after another within a millisecond keep the last of them.
+     */
+    private static boolean isKept(@NotNull final TimestampRecord stored, @NotNull final TimestampRecord record) {
+        return stored.getTimestamp() > record.getTimestamp() || TimestampRecord.compare(stored, record) == 0;
+    }
+
+    private void written(@NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+        changes.mark(key);
+        purgeSchedule.schedule(key, purgeableAt(record));
+        if (cache != null) {
+            cache.update(key, record);
         }
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) throws IOException {
         try {
-            final byte[] packedKey = decompressKey(key);
-            mdb.delete(wOptions,packedKey);
+            final byte[] packedKey = packKey(key);
+            mdb.delete(wOptions, packedKey, 0, key.remaining());
         } catch (RocksDBException e) {
             throw new DAOException("Remove method exception!", e);
         }
+        awaitDurable();
     }
     
     /**
@@ -154,16 +570,232 @@ public final class DAORocksDB implements DAO {
     *@throws IOException in case of remove error
     */
     public void removeRecordWithTimestamp(@NotNull final ByteBuffer key) throws IOException {
+        writeRecordWithTimestamp(key, TimestampRecord.tombstone(TimestampRecord.now()));
+    }
+
+    /**
+    *Remove the tombstones and the expired records older than the grace period,
+    *RocksDB drops them with the next compactions.
+    *The grace period lets the replicas which missed the write learn about it before
+    *the older value they keep can win the merge again.
+    *Only the ranges where the writes left such records since the previous purge are scanned,
+    *all the ranges are scanned by the first purge after the start.
+    *Applies to the storage of the records with timestamp only.
+    *
+    *@return amount of the removed records
+    *@throws IOException in case of iteration or remove error
+    */
+    public long purge() throws IOException {
+        final long now = System.currentTimeMillis();
+        final int[] ranges = purgeSchedule.drain(now);
+        long expired = 0;
+        long tombstones = 0;
+        int next = 0;
         try {
-            final byte[] packedKey = decompressKey(key);
-            final var record = TimestampRecord.tombstone(System.currentTimeMillis());
-            final byte[] arrayValue = record.toBytes();
-            mdb.put(wOptions, packedKey, arrayValue);
+            while (next < ranges.length) {
+                // The adjacent ranges are scanned at once
+                int last = next;
+                while (last + 1 < ranges.length && ranges[last + 1] == ranges[last] + 1) {
+                    last++;
+                }
+                try (RecordCursor cursor = cursor(KeyRanges.start(ranges[next]), KeyRanges.end(ranges[last]),
+                        false)) {
+                    while (cursor.advance()) {
+                        final long purgeableAt = purgeableAt(TimestampRecord.fromBytes(cursor.value()));
+                        final ByteBuffer key = ByteBuffer.wrap(cursor.key());
+                        if (purgeableAt > now) {
+                            purgeSchedule.schedule(key, purgeableAt);
+                            continue;
+                        }
+                        final TimestampRecord purged = purgeIfStale(key, now);
+                        if (purged == null) {
+                            // The record was rewritten since the cursor read it, the write scheduled it again
+                            continue;
+                        }
+                        if (purged.isDeleted()) {
+                            tombstones++;
+                        } else {
+                            expired++;
+                        }
+                    }
+                }
+                next = last + 1;
+            }
         } catch (RocksDBException e) {
-            throw new DAOException("Remove method exception!", e);
+            throw new DAOException("Purge exception!", e);
+        } finally {
+            for (; next < ranges.length; next++) {
+                purgeSchedule.schedule(ranges[next], now);
+            }
+            purgedExpired.addAndGet(expired);
+            purgedTombstones.addAndGet(tombstones);
+        }
+        return expired + tombstones;
+    }
+
+    /**
+     * Get the time the record can be purged at.
+     */
+    private long purgeableAt(@NotNull final TimestampRecord record) {
+        final long time;
+        if (record.isDeleted()) {
+            time = record.getTimestamp();
+        } else if (record.isValue()) {
+            time = record.getExpiresAt();
+        } else {
+            return TimestampRecord.NEVER;
+        }
+        return time >= TimestampRecord.NEVER - gcGraceMillis ? TimestampRecord.NEVER : time + gcGraceMillis;
+    }
+
+    @Nullable
+    private TimestampRecord purgeIfStale(@NotNull final ByteBuffer key, final long now) throws RocksDBException {
+        final int stripe = locks.stripe(key);
+        locks.lock(stripe);
+        try {
+            // The record could be rewritten since the cursor read it
+            final byte[] packedKey = packKey(key);
+            final TimestampRecord current = TimestampRecord.fromBytes(mdb.get(packedKey, 0, key.remaining()));
+            if (purgeableAt(current) > now) {
+                return null;
+            }
+            mdb.delete(wOptions, packedKey, 0, key.remaining());
+            changes.mark(key);
+            if (cache != null) {
+                cache.invalidate(key);
+            }
+            return current;
+        } finally {
+            locks.unlock(stripe);
+        }
+    }
+
+    public long getPurgedExpiredCount() {
+        return purgedExpired.get();
+    }
+
+    public long getPurgedTombstoneCount() {
+        return purgedTombstones.get();
+    }
+
+    /**
+    *Get the amount of the WAL syncs shared by the writes in the group commit mode.
+    *
+    *@return amount of the syncs, {@code 0} in the other modes
+    */
+    public long getWalSyncCount() {
+        return groupCommit == null ? 0 : groupCommit.getSyncCount();
+    }
+
+    private void awaitDurable() throws IOException {
+        if (groupCommit != null) {
+            groupCommit.await();
         }
     }
 
+    /**
+    *Get the read cache of the records with timestamp.
+    *
+    *@return read cache or {@code null} if disabled
+    */
+    @Nullable
+    public ReadCache getReadCache() {
+        return cache;
+    }
+
+    /**
+    *Get the keys changed by the writes and the purges of the records with timestamp.
+    *
+    *@return changed keys shared by all the callers
+    */
+    @NotNull
+    public ChangedKeys getChangedKeys() {
+        return changes;
+    }
+
+    /**
+    *Get the directory of the hints, it is kept next to the directory of the storage and not inside it,
+    *so that RocksDB doesn't find the foreign files among its own.
+    *
+    *@param data to specify the directory of the storage
+    *@return directory of the hints
+    */
+    @NotNull
+    public static File hintsDirectory(@NotNull final File data) {
+        final File absolute = data.getAbsoluteFile();
+        return new File(absolute.getParentFile(), absolute.getName() + HINTS_SUFFIX);
+    }
+
+    /**
+    *Get the directory of the record hashes, it is kept next to the directory of the storage like the hints.
+    *
+    *@param data to specify the directory of the storage
+    *@return directory of the record hashes
+    */
+    @NotNull
+    public static File digestsDirectory(@NotNull final File data) {
+        final File absolute = data.getAbsoluteFile();
+        return new File(absolute.getParentFile(), absolute.getName() + DIGESTS_SUFFIX);
+    }
+
+    /**
+    *Get the store of the writes missed by the other replicas, it is opened with the first call.
+    *
+    *@return hint store kept in {@link #hintsDirectory(File)}
+    *@throws IOException in case of open error
+    */
+    @NotNull
+    public synchronized HintStore getHints() throws IOException {
+        if (hints == null) {
+            hints = HintStore.open(hintsDir, maxHintBytes, gcGraceMillis);
+        }
+        return hints;
+    }
+
+    /**
+    *Get the index of the record hashes, it is opened empty with the first call.
+    *
+    *@return digest index kept in {@link #digestsDirectory(File)}
+    *@throws IOException in case of open error
+    */
+    @NotNull
+    public synchronized DigestIndex getDigests() throws IOException {
+        if (digests == null) {
+            digests = DigestIndex.open(digestsDir);
+        }
+        return digests;
+    }
+
+    /**
+    *Get the RocksDB property, e.g. {@code rocksdb.aggregated-table-properties}.
+    *
+    *@param name to specify the name of the property
+    *@return value of the property
+    *@throws IOException if the property is unknown
+    */
+    @NotNull
+    public String getProperty(@NotNull final String name) throws IOException {
+        try {
+            return mdb.getProperty(name);
+        } catch (RocksDBException e) {
+            throw new DAOException("Property exception!", e);
+        }
+    }
+
+    /**
+    *Get the RocksDB ticker counted since open, e.g. {@link TickerType#BLOOM_FILTER_USEFUL}.
+    *
+    *@param ticker to specify the ticker
+    *@return value of the ticker
+    *@throws IllegalStateException if the statistics are not collected, see {@link StorageConfig#isStatistics()}
+    */
+    public long getTickerCount(@NotNull final TickerType ticker) {
+        if (statistics == null) {
+            throw new IllegalStateException("Statistics are not collected");
+        }
+        return statistics.getTickerCount(ticker);
+    }
+
     @Override
     public void compact() throws IOException {
         try {
@@ -175,27 +807,73 @@ public final class DAORocksDB implements DAO {
 
     @Override
     public void close() throws DAOException {
+        // The writers waiting for the group commit are drained before the storage is closed
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+        synchronized (this) {
+            if (hints != null) {
+                hints.close();
+            }
+            if (digests != null) {
+                digests.close();
+            }
+        }
         try {
             mdb.syncWal();
             mdb.closeE();
+            wOptions.close();
+            resources.forEach(RocksObject::close);
         } catch (RocksDBException exception) {
             throw new DAOException("Error while close", exception);
         }
     }
 
-    static DAO create(final File data) throws IOException {
+    static DAO create(final File data, final StorageConfig config) throws IOException {
+        final List<RocksObject> resources = new ArrayList<>();
         try {
+            final var tableConfig = new BlockBasedTableConfig();
+            final var blockCache = new LRUCache(config.getBlockCacheBytes());
+            resources.add(blockCache);
+            tableConfig.setBlockCache(blockCache);
+            if (config.getBloomBitsPerKey() > 0) {
+                final var filter = new BloomFilter(config.getBloomBitsPerKey(), false);
+                resources.add(filter);
+                tableConfig.setFilterPolicy(filter);
+            }
+            tableConfig.setCacheIndexAndFilterBlocks(true);
+            tableConfig.setPinL0FilterAndIndexBlocksInCache(config.isPinL0FilterAndIndexBlocks());
+            tableConfig.setBlockSize(config.getBlockSize());
+            if (config.isPartitionedIndex()) {
+                tableConfig.setIndexType(IndexType.kTwoLevelIndexSearch);
+                tableConfig.setPartitionFilters(true);
+            }
+
             final var options = new Options();
+            resources.add(options);
             options.setCreateIfMissing(true);
-            options.setCompressionType(CompressionType.NO_COMPRESSION);
+            options.setTableFormatConfig(tableConfig);
+            if (config.getCompressionPerLevel() == null) {
+                options.setCompressionType(CompressionType.NO_COMPRESSION);
+            } else {
+                options.setCompressionPerLevel(config.getCompressionPerLevel());
+            }
             options.setComparator(BuiltinComparator.BYTEWISE_COMPARATOR);
             options.setMaxBackgroundCompactions(2);
             options.setMaxBackgroundFlushes(2);
-            wOptions = new WriteOptions();
-            wOptions.setDisableWAL(true);
+            Statistics statistics = null;
+            if (config.isStatistics()) {
+                statistics = new Statistics();
+                resources.add(statistics);
+                options.setStatistics(statistics);
+            }
+            final var wOptions = new WriteOptions();
+            wOptions.setDisableWAL(config.getDurability() == StorageConfig.Durability.NONE);
+            wOptions.setSync(config.getDurability() == StorageConfig.Durability.SYNC);
             final RocksDB db = RocksDB.open(options, data.getAbsolutePath());
-            return new DAORocksDB(db);
+            return new DAORocksDB(db, wOptions, config, resources, statistics, data);
         } catch (RocksDBException e) {
+            resources.forEach(RocksObject::close);
             throw new DAOException("RocksDB instantiation failed!", e);
         }
     }
@@ -208,18 +886,46 @@ public final class DAORocksDB implements DAO {
     }
 
     private static byte[] decompressKey(@NotNull final ByteBuffer key) {
-        final byte[] arrayKey = copyAndExtractFromByteBuffer(key);
-        for (int i = 0; i < arrayKey.length; i++) {
-            arrayKey[i] -= Byte.MIN_VALUE;
-        }
+        final byte[] arrayKey = new byte[key.remaining()];
+        flipSigns(key, arrayKey);
         return arrayKey;
     }
 
+    /**
+     * Pack the key into the thread local buffer, so the hot path doesn't allocate.
+     * Only the first {@code key.remaining()} bytes of the result are meaningful.
+     *
+     * @param key to pack
+     * @return shared per-thread buffer holding the packed key
+     */
+    private static byte[] packKey(@NotNull final ByteBuffer key) {
+        byte[] packed = KEY_BUFFER.get();
+        if (packed.length < key.remaining()) {
+            packed = new byte[Math.max(key.remaining(), packed.length * 2)];
+            KEY_BUFFER.set(packed);
+        }
+        flipSigns(key, packed);
+        return packed;
+    }
+
+    private static void flipSigns(@NotNull final ByteBuffer key, @NotNull final byte[] dst) {
+        final int position = key.position();
+        final int length = key.remaining();
+        for (int i = 0; i < length; i++) {
+            dst[i] = (byte) (key.get(position + i) - Byte.MIN_VALUE);
+        }
+    }
+
     private static ByteBuffer compressKey(@NotNull final byte[] key) {
-        final byte[] copy = Arrays.copyOf(key, key.length);
-        for (int i = 0; i < copy.length; i++) {
-            copy[i] += Byte.MIN_VALUE;
+        return ByteBuffer.wrap(unflipSigns(key));
+    }
+
+    @NotNull
+    private static byte[] unflipSigns(@NotNull final byte[] key) {
+        // The array is freshly allocated by JNI for every call, so unpack it in place
+        for (int i = 0; i < key.length; i++) {
+            key[i] += Byte.MIN_VALUE;
         }
-        return ByteBuffer.wrap(copy);
+        return key;
     }
 }
@@ -0,0 +1,180 @@
+package ru.mail.polis.dao;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Disk index of the record hashes kept apart from the data like the {@link HintStore}.
+ * The keys are spread over {@link #BUCKETS} buckets by the hash of the key, so the keys sharing a prefix
+ * don't fall into one bucket. Every key maps to the hash of its record: {@code k<key>} to {@code <hash>},
+ * and is listed in its bucket: {@code b<bucket><key>}, so the keys of the bucket are read with one scan.
+ * The index is rebuilt from the data after every start, so the old one is destroyed on open.
+ */
+public final class DigestIndex implements Closeable {
+    public static final int BUCKETS = 1 << 16;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final byte BUCKET_PREFIX = 'b';
+    private static final byte HASH_PREFIX = 'k';
+    private static final int BUCKET_HEADER = 1 + Short.BYTES;
+
+    private final RocksDB db;
+    private final Options options;
+    private final WriteOptions wOptions;
+
+    private DigestIndex(@NotNull final RocksDB db, @NotNull final Options options) {
+        this.db = db;
+        this.options = options;
+        this.wOptions = new WriteOptions().setDisableWAL(true);
+    }
+
+    static DigestIndex open(@NotNull final File dir) throws IOException {
+        final var options = new Options();
+        options.setCreateIfMissing(true);
+        try {
+            if (dir.exists()) {
+                RocksDB.destroyDB(dir.getAbsolutePath(), options);
+            }
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Can't create digests directory: " + dir);
+            }
+            return new DigestIndex(RocksDB.open(options, dir.getAbsolutePath()), options);
+        } catch (RocksDBException e) {
+            options.close();
+            throw new DAOException("Digests instantiation failed!", e);
+        } catch (IOException e) {
+            options.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the bucket of the key.
+     *
+     * @param key to specify the key
+     * @return index of the bucket
+     */
+    public static int bucketOf(@NotNull final ByteBuffer key) {
+        return HASH.hashBytes(key.duplicate()).asInt() & (BUCKETS - 1);
+    }
+
+    /**
+     * Replace the hash of the record.
+     *
+     * @param key to specify the key of the record
+     * @param hash to specify the hash of the record, {@code 0} if the record is absent
+     * @return previous hash of the record, {@code 0} if it was absent
+     * @throws IOException in case of read or write error
+     */
+    public long update(@NotNull final ByteBuffer key, final long hash) throws IOException {
+        final byte[] hashKey = hashKey(key);
+        try {
+            final byte[] previous = db.get(hashKey);
+            final long old = previous == null ? 0 : ByteBuffer.wrap(previous).getLong();
+            if (old == hash) {
+                return old;
+            }
+            try (WriteBatch batch = new WriteBatch()) {
+                if (hash == 0) {
+                    batch.delete(hashKey);
+                    batch.delete(bucketKey(key));
+                } else {
+                    batch.put(hashKey, ByteBuffer.allocate(Long.BYTES).putLong(hash).array());
+                    batch.put(bucketKey(key), new byte[0]);
+                }
+                db.write(wOptions, batch);
+            }
+            return old;
+        } catch (RocksDBException e) {
+            throw new DAOException("Digest update exception!", e);
+        }
+    }
+
+    /**
+     * Remove all the hashes before the index is rebuilt.
+     *
+     * @throws IOException in case of write error
+     */
+    public void clear() throws IOException {
+        try {
+            db.deleteRange(wOptions, new byte[]{BUCKET_PREFIX}, new byte[]{HASH_PREFIX + 1});
+        } catch (RocksDBException e) {
+            throw new DAOException("Digest clear exception!", e);
+        }
+    }
+
+    /**
+     * Read the keys of the bucket.
+     *
+     * @param bucket to specify the index of the bucket
+     * @param after to specify the key of the bucket to continue after, {@code null} to start from the first key
+     * @param max to specify the maximal amount of the keys
+     * @return keys in the order of the index
+     * @throws IOException in case of read error
+     */
+    @NotNull
+    public List<ByteBuffer> keys(final int bucket, @Nullable final ByteBuffer after, final int max)
+            throws IOException {
+        final byte[] prefix = ByteBuffer.allocate(BUCKET_HEADER).put(BUCKET_PREFIX).putShort((short) bucket).array();
+        final List<ByteBuffer> keys = new ArrayList<>();
+        try (RocksIterator iterator = db.newIterator()) {
+            iterator.seek(after == null ? prefix : bucketKey(after));
+            for (; iterator.isValid() && keys.size() < max; iterator.next()) {
+                final byte[] id = iterator.key();
+                if (!Arrays.equals(id, 0, BUCKET_HEADER, prefix, 0, BUCKET_HEADER)) {
+                    break;
+                }
+                final ByteBuffer key = ByteBuffer.wrap(id, BUCKET_HEADER, id.length - BUCKET_HEADER).slice();
+                if (!key.equals(after)) {
+                    keys.add(key);
+                }
+            }
+            iterator.status();
+        } catch (RocksDBException e) {
+            throw new DAOException("Digest read exception!", e);
+        }
+        return keys;
+    }
+
+    @NotNull
+    private static byte[] hashKey(@NotNull final ByteBuffer key) {
+        return ByteBuffer.allocate(1 + key.remaining()).put(HASH_PREFIX).put(key.duplicate()).array();
+    }
+
+    @NotNull
+    private static byte[] bucketKey(@NotNull final ByteBuffer key) {
+        return ByteBuffer.allocate(BUCKET_HEADER + key.remaining())
+                .put(BUCKET_PREFIX)
+                .putShort((short) bucketOf(key))
+                .put(key.duplicate())
+                .array();
+    }
+
+    @Override
+    public void close() throws DAOException {
+        try {
+            db.closeE();
+        } catch (RocksDBException e) {
+            throw new DAOException("Error while close", e);
+        } finally {
+            wOptions.close();
+            options.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Group commit of the write ahead log.
+ * Writers append to the WAL without sync and wait for the next sync,
+ * which is shared by all the writes completed within the window.
+ */
+final class GroupCommit implements AutoCloseable {
+    private final RocksDB db;
+    private final long windowNanos;
+    private final Thread syncer;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition pending = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+
+    // Number of the next sync to start, it covers all the writes completed before
+    private long next = 1;
+    private long requested;
+    private long completed;
+    private long durable;
+    // Number of the writers waiting for a sync, close returns once they are served
+    private int waiting;
+    private boolean running = true;
+    private RocksDBException failure;
+
+    /**
+     * Start the syncer.
+     *
+     * @param db to specify the storage with WAL enabled
+     * @param windowMicros to specify the time to gather the writes of a group
+     */
+    GroupCommit(@NotNull final RocksDB db, final long windowMicros) {
+        this.db = db;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.syncer = new Thread(this::run, "wal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Wait until the writes completed by the calling thread are durable.
+     * Once closed, the calling thread syncs the WAL itself.
+     *
+     * @throws IOException if the sync failed or the thread was interrupted
+     */
+    void await() throws IOException {
+        lock.lock();
+        try {
+            if (!running) {
+                // The syncer is stopped and would never serve the group
+                syncInline();
+                return;
+            }
+            final long group = next;
+            if (requested < group) {
+                requested = group;
+                pending.signal();
+            }
+            waiting++;
+            try {
+                while (completed < group) {
+                    synced.await();
+                }
+            } finally {
+                if (--waiting == 0) {
+                    drained.signalAll();
+                }
+            }
+            if (durable < group) {
+                throw new DAOException("WAL sync failed", failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for WAL sync");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void syncInline() throws DAOException {
+        try {
+            db.syncWal();
+        } catch (RocksDBException e) {
+            throw new DAOException("WAL sync failed", e);
+        }
+    }
+
+    private void run() {
+        while (awaitWriters()) {
+            if (windowNanos > 0) {
+                // Let the concurrent writers join the group
+                LockSupport.parkNanos(windowNanos);
+            }
+            final long group;
+            lock.lock();
+            try {
+                group = next++;
+            } finally {
+                lock.unlock();
+            }
+            RocksDBException error = null;
+            try {
+                db.syncWal();
+            } catch (RocksDBException e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                completed = group;
+                if (error == null) {
+                    durable = group;
+                } else {
+                    failure = error;
+                }
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Wait for the writers, the remaining ones are served after close.
+     *
+     * @return {@code false} if stopped and nobody waits
+     */
+    private boolean awaitWriters() {
+        lock.lock();
+        try {
+            while (requested == completed && running) {
+                pending.awaitUninterruptibly();
+            }
+            return requested > completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the amount of the WAL syncs done, every one of them covers all the writes awaiting it.
+     *
+     * @return amount of the syncs
+     */
+    long getSyncCount() {
+        lock.lock();
+        try {
+            return completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop the syncer after serving the waiting writers, the later ones sync the WAL inline.
+     * The storage must stay open until the writers in progress return.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            pending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            while (waiting > 0) {
+                drained.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disk store of the writes missed by the unavailable replicas, kept apart from the data
+ * so the ranges and the compactions of the data don't see them.
+ * The hints of every node are ordered by the time they are added: {@code <node>\0<sequence>}
+ * maps to {@code <length><key><record>}, where the record keeps the timestamp of the write.
+ */
+public final class HintStore implements Closeable {
+    private static final byte SEPARATOR = 0;
+
+    private final RocksDB db;
+    private final Options options;
+    private final WriteOptions wOptions;
+    private final long maxBytes;
+    private final long gcGraceMillis;
+    private final AtomicLong sequence;
+    private final AtomicLong bytes;
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Missed write of the key.
+     */
+    public static final class Hint {
+        private final byte[] id;
+        private final ByteBuffer key;
+        private final TimestampRecord record;
+
+        Hint(@NotNull final byte[] id, @NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+            this.id = id;
+            this.key = key;
+            this.record = record;
+        }
+
+        @NotNull
+        public ByteBuffer getKey() {
+            return key.duplicate();
+        }
+
+        @NotNull
+        public TimestampRecord getRecord() {
+            return record;
+        }
+    }
+
+    private HintStore(@NotNull final RocksDB db, @NotNull final Options options, final long maxBytes,
+                      final long gcGraceMillis) {
+        this.db = db;
+        this.options = options;
+        this.wOptions = new WriteOptions();
+        this.maxBytes = maxBytes;
+        this.gcGraceMillis = gcGraceMillis;
+        long size = 0;
+        long last = 0;
+        try (RocksIterator iterator = db.newIterator()) {
+            for (iterator.seekToFirst(); iterator.isValid(); iterator.next()) {
+                final byte[] id = iterator.key();
+                size += id.length + iterator.value().length;
+                last = Math.max(last, ByteBuffer.wrap(id, id.length - Long.BYTES, Long.BYTES).getLong());
+            }
+        }
+        this.bytes = new AtomicLong(size);
+        this.sequence = new AtomicLong(last);
+    }
+
+    static HintStore open(@NotNull final File dir, final long maxBytes, final long gcGraceMillis)
+            throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create hints directory: " + dir);
+        }
+        final var options = new Options();
+        options.setCreateIfMissing(true);
+        try {
+            return new HintStore(RocksDB.open(options, dir.getAbsolutePath()), options, maxBytes, gcGraceMillis);
+        } catch (RocksDBException e) {
+            options.close();
+            throw new DAOException("Hints instantiation failed!", e);
+        }
+    }
+
+    /**
+     * Store the write missed by the node.
+     *
+     * @param node to specify the node missed the write
+     * @param key to specify the key written
+     * @param record to specify the record written
+     * @return {@code false} if there is no space left and the hint is dropped
+     * @throws IOException in case of write error
+     */
+    public boolean add(@NotNull final String node, @NotNull final ByteBuffer key,
+                       @NotNull final TimestampRecord record) throws IOException {
+        final byte[] prefix = prefix(node);
+        final byte[] id = Arrays.copyOf(prefix, prefix.length + Long.BYTES);
+        ByteBuffer.wrap(id, prefix.length, Long.BYTES).putLong(sequence.incrementAndGet());
+        final byte[] encoded = record.toBytes();
+        final byte[] value = ByteBuffer.allocate(Integer.BYTES + key.remaining() + encoded.length)
+                .putInt(key.remaining())
+                .put(key.duplicate())
+                .put(encoded)
+                .array();
+        final long size = id.length + value.length;
+        if (bytes.addAndGet(size) > maxBytes) {
+            bytes.addAndGet(-size);
+            dropped.incrementAndGet();
+            return false;
+        }
+        try {
+            db.put(wOptions, id, value);
+        } catch (RocksDBException e) {
+            bytes.addAndGet(-size);
+            throw new DAOException("Hint write exception!", e);
+        }
+        stored.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Read the oldest hints of the node.
+     * The hints older than the grace period are removed instead,
+     * as the tombstones written after them could be purged on the other replicas already.
+     *
+     * @param node to specify the node missed the writes
+     * @param max to specify the maximal amount of hints
+     * @return hints in the order they are added
+     * @throws IOException in case of read error
+     */
+    @NotNull
+    public List<Hint> peek(@NotNull final String node, final int max) throws IOException {
+        final byte[] prefix = prefix(node);
+        final long before = System.currentTimeMillis() - gcGraceMillis;
+        final List<Hint> hints = new ArrayList<>(max);
+        final List<byte[]> stale = new ArrayList<>();
+        try (RocksIterator iterator = db.newIterator()) {
+            for (iterator.seek(prefix); iterator.isValid() && hints.size() < max; iterator.next()) {
+                final byte[] id = iterator.key();
+                if (id.length != prefix.length + Long.BYTES
+                        || !Arrays.equals(id, 0, prefix.length, prefix, 0, prefix.length)) {
+                    break;
+                }
+                final ByteBuffer value = ByteBuffer.wrap(iterator.value());
+                final byte[] key = new byte[value.getInt()];
+                value.get(key);
+                final byte[] encoded = new byte[value.remaining()];
+                value.get(encoded);
+                final TimestampRecord record = TimestampRecord.fromBytes(encoded);
+                if (record.getTimestamp() < before) {
+                    stale.add(id);
+                } else {
+                    hints.add(new Hint(id, ByteBuffer.wrap(key), record));
+                }
+            }
+            iterator.status();
+        } catch (RocksDBException e) {
+            throw new DAOException("Hint read exception!", e);
+        }
+        delete(stale);
+        dropped.addAndGet(stale.size());
+        return hints;
+    }
+
+    /**
+     * Remove the hints delivered to the node.
+     *
+     * @param hints to remove
+     * @throws IOException in case of write error
+     */
+    public void remove(@NotNull final List<Hint> hints) throws IOException {
+        final List<byte[]> ids = new ArrayList<>(hints.size());
+        for (final Hint hint : hints) {
+            ids.add(hint.id);
+        }
+        delete(ids);
+    }
+
+    private void delete(@NotNull final List<byte[]> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return;
+        }
+        long size = 0;
+        try (WriteBatch batch = new WriteBatch()) {
+            for (final byte[] id : ids) {
+                final byte[] value = db.get(id);
+                if (value != null) {
+                    size += id.length + value.length;
+                    batch.delete(id);
+                }
+            }
+            db.write(wOptions, batch);
+        } catch (RocksDBException e) {
+            throw new DAOException("Hint remove exception!", e);
+        }
+        bytes.addAndGet(-size);
+    }
+
+    @NotNull
+    private static byte[] prefix(@NotNull final String node) {
+        final byte[] name = node.getBytes(StandardCharsets.UTF_8);
+        final byte[] prefix = Arrays.copyOf(name, name.length + 1);
+        prefix[name.length] = SEPARATOR;
+        return prefix;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getStoredCount() {
+        return stored.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() throws DAOException {
+        try {
+            db.closeE();
+        } catch (RocksDBException e) {
+            throw new DAOException("Error while close", e);
+        } finally {
+            wOptions.close();
+            options.close();
+        }
+    }
+}
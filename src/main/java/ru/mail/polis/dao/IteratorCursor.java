@@ -0,0 +1,71 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.Record;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Cursor over the iterator of records copying every key and value.
+ */
+final class IteratorCursor implements RecordCursor {
+    private final Iterator<Record> records;
+    private byte[] key;
+    private byte[] value;
+
+    IteratorCursor(@NotNull final Iterator<Record> records) {
+        this.records = records;
+    }
+
+    @Override
+    public boolean advance() {
+        if (!records.hasNext()) {
+            return false;
+        }
+        final Record record = records.next();
+        key = toByteArray(record.getKey());
+        value = toByteArray(record.getValue());
+        return true;
+    }
+
+    @NotNull
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public byte[] value() {
+        return value;
+    }
+
+    @Override
+    public int valueOffset() {
+        return 0;
+    }
+
+    @Override
+    public int valueLength() {
+        return value.length;
+    }
+
+    @Override
+    public void close() {
+        if (records instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) records).close();
+            } catch (Exception e) {
+                throw new IllegalStateException("Can't close records", e);
+            }
+        }
+    }
+
+    @NotNull
+    private static byte[] toByteArray(@NotNull final ByteBuffer buffer) {
+        final byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks of the keys taken by the read-modify-write operations on the records with timestamp:
+ * the writes, which compare the record with the stored one, and the purge.
+ * The plain {@link DAO} writes don't lock.
+ */
+final class KeyLocks {
+    private final Lock[] locks;
+
+    /**
+     * Create the locks.
+     *
+     * @param stripes to specify the amount of stripes, a power of two
+     */
+    KeyLocks(final int stripes) {
+        if (Integer.bitCount(stripes) != 1) {
+            throw new IllegalArgumentException("Wrong amount of stripes: " + stripes);
+        }
+        this.locks = new Lock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    int stripe(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (locks.length - 1);
+    }
+
+    void lock(final int stripe) {
+        locks[stripe].lock();
+    }
+
+    void unlock(final int stripe) {
+        locks[stripe].unlock();
+    }
+}
@@ -0,0 +1,59 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Key space split into {@link #COUNT} ranges by the first two bytes of the key.
+ * The ranges follow the order of the keys, so every range is read with a single range scan.
+ */
+public final class KeyRanges {
+    public static final int COUNT = 1 << 16;
+
+    private KeyRanges() {
+        // Don't instantiate
+    }
+
+    /**
+     * Get the range of the key.
+     *
+     * @param key to specify the key
+     * @return index of the range
+     */
+    public static int rangeOf(@NotNull final ByteBuffer key) {
+        // Bytes are compared as signed, so the absent second byte goes before all the present ones
+        final int first = key.remaining() > 0 ? key.get(key.position()) - Byte.MIN_VALUE : 0;
+        final int second = key.remaining() > 1 ? key.get(key.position() + 1) - Byte.MIN_VALUE : 0;
+        return first << Byte.SIZE | second;
+    }
+
+    /**
+     * Get the first key of the range.
+     *
+     * @param range to specify the index of the range
+     * @return first key (inclusive)
+     */
+    @NotNull
+    public static ByteBuffer start(final int range) {
+        if (range == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        final byte first = (byte) ((range >>> Byte.SIZE) + Byte.MIN_VALUE);
+        final byte second = (byte) ((range & 0xFF) + Byte.MIN_VALUE);
+        // The one byte key is the first one of the range where the second byte is the lowest
+        return ByteBuffer.wrap(second == Byte.MIN_VALUE ? new byte[]{first} : new byte[]{first, second});
+    }
+
+    /**
+     * Get the bound of the range.
+     *
+     * @param range to specify the index of the range
+     * @return first key of the next range (exclusive), {@code null} for the last range
+     */
+    @Nullable
+    public static ByteBuffer end(final int range) {
+        return range == COUNT - 1 ? null : start(range + 1);
+    }
+}
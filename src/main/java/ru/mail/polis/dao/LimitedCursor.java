@@ -0,0 +1,70 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Cursor over the first records of the other cursor.
+ * The source is advanced once past the limit to tell if the range is complete.
+ */
+final class LimitedCursor implements RecordCursor {
+    private final RecordCursor records;
+    private final int limit;
+    private int count;
+    private byte[] continuation;
+
+    LimitedCursor(@NotNull final RecordCursor records, final int limit) {
+        this.records = records;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        if (count > limit) {
+            return false;
+        }
+        count++;
+        final boolean next = records.advance();
+        if (next && count > limit) {
+            // The source isn't advanced any more, so its key stays valid
+            continuation = records.key();
+            return false;
+        }
+        return next;
+    }
+
+    @NotNull
+    @Override
+    public byte[] key() {
+        return records.key();
+    }
+
+    @NotNull
+    @Override
+    public byte[] value() {
+        return records.value();
+    }
+
+    @Override
+    public int valueOffset() {
+        return records.valueOffset();
+    }
+
+    @Override
+    public int valueLength() {
+        return records.valueLength();
+    }
+
+    @Nullable
+    @Override
+    public byte[] continuation() {
+        return continuation;
+    }
+
+    @Override
+    public void close() {
+        records.close();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of the cursors over the encoded records with timestamp.
+ * The same way as {@link Iters#collapseEquals(java.util.Iterator)} does after the merge,
+ * only the first record of the equal keys is kept, and the latest one goes first.
+ * Tombstones and expired values are skipped, the value is exposed without the header.
+ * Only the current record of every source is held, so the memory doesn't depend on the range size.
+ */
+public final class MergedRecordCursor implements RecordCursor {
+    private static final Comparator<RecordCursor> KEYS = (a, b) -> Arrays.compare(a.key(), b.key());
+    private static final Comparator<RecordCursor> LATEST = (a, b) ->
+            TimestampRecord.compare(b.value(), a.value());
+
+    private final List<RecordCursor> sources;
+    private final long now;
+    private final PriorityQueue<RecordCursor> heads;
+    private final List<RecordCursor> consumed;
+    private RecordCursor current;
+
+    /**
+     * Create the merge.
+     *
+     * @param sources to specify the cursors over the encoded records in the same order of keys
+     * @param now to specify the current time to check the expiration
+     * @param descending to specify if the keys of the sources are in the descending order
+     */
+    public MergedRecordCursor(@NotNull final List<RecordCursor> sources, final long now, final boolean descending) {
+        this.sources = sources;
+        this.now = now;
+        final Comparator<RecordCursor> keys = descending ? KEYS.reversed() : KEYS;
+        this.heads = new PriorityQueue<>(Math.max(1, sources.size()), keys.thenComparing(LATEST));
+        // Sources are advanced lazily, so the arrays of the current record stay valid
+        this.consumed = new ArrayList<>(sources);
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        while (true) {
+            for (final RecordCursor source : consumed) {
+                if (source.advance()) {
+                    heads.add(source);
+                }
+            }
+            consumed.clear();
+            if (heads.isEmpty()) {
+                current = null;
+                return false;
+            }
+            final RecordCursor latest = heads.poll();
+            consumed.add(latest);
+            while (!heads.isEmpty() && Arrays.equals(heads.peek().key(), latest.key())) {
+                consumed.add(heads.poll());
+            }
+            if (TimestampRecord.isLive(latest.value(), now)) {
+                current = latest;
+                return true;
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public byte[] key() {
+        return current.key();
+    }
+
+    @NotNull
+    @Override
+    public byte[] value() {
+        return current.value();
+    }
+
+    @Override
+    public int valueOffset() {
+        return TimestampRecord.valueOffset(current.value());
+    }
+
+    @Override
+    public int valueLength() {
+        return current.value().length - valueOffset();
+    }
+
+    @Override
+    public void close() {
+        for (final RecordCursor source : sources) {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Earliest time every range of {@link KeyRanges} holds a tombstone or an expired record to purge at,
+ * so the purge scans only the ranges due instead of the whole storage.
+ * Every range starts due, so the first purge covers the records written before the start.
+ */
+final class PurgeSchedule {
+    private final AtomicLongArray purgeAt = new AtomicLongArray(KeyRanges.COUNT);
+
+    /**
+     * Schedule the purge of the range of the key.
+     *
+     * @param key to specify the key of the record
+     * @param time to specify the time the record can be purged at, {@link TimestampRecord#NEVER} if it can't
+     */
+    void schedule(@NotNull final ByteBuffer key, final long time) {
+        if (time != TimestampRecord.NEVER) {
+            schedule(KeyRanges.rangeOf(key), time);
+        }
+    }
+
+    void schedule(final int range, final long time) {
+        if (purgeAt.get(range) > time) {
+            purgeAt.accumulateAndGet(range, time, Math::min);
+        }
+    }
+
+    /**
+     * Take the ranges due, the caller schedules the records in them which can't be purged yet again.
+     *
+     * @param now to specify the current time
+     * @return indices of the due ranges in ascending order
+     */
+    @NotNull
+    int[] drain(final long now) {
+        int[] ranges = new int[Long.SIZE];
+        int count = 0;
+        for (int range = 0; range < purgeAt.length(); range++) {
+            if (purgeAt.get(range) > now) {
+                continue;
+            }
+            // The records written before the range is taken are seen by the scan of the range
+            purgeAt.set(range, TimestampRecord.NEVER);
+            if (count == ranges.length) {
+                ranges = Arrays.copyOf(ranges, count * 2);
+            }
+            ranges[count++] = range;
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+}
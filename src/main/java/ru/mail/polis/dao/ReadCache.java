@@ -0,0 +1,118 @@
+package ru.mail.polis.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read cache of {@link TimestampRecord}s bounded by the size of keys and values in bytes.
+ * The written records are merged by timestamp.
+ * The loaded record may be read before a write and inserted after the written one is evicted,
+ * so every write and purge bumps the version of the key stripe and the load is dropped if the version changed.
+ */
+public final class ReadCache {
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int VERSION_STRIPES = 1024;
+
+    private final Cache<ByteBuffer, TimestampRecord> cache;
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+
+    ReadCache(final long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(ReadCache::weigh)
+                .recordStats()
+                .build();
+    }
+
+    @Nullable
+    TimestampRecord get(@NotNull final ByteBuffer key) {
+        return cache.getIfPresent(key);
+    }
+
+    /**
+     * Get the version of the key to pass to {@link #load}, it must be taken before the record is read.
+     *
+     * @param key to identify the record
+     * @return version of the key stripe
+     */
+    long version(@NotNull final ByteBuffer key) {
+        return versions.get(stripe(key));
+    }
+
+    /**
+     * Put the record read from the storage unless the key was written or purged since the version was taken.
+     *
+     * @param key to identify the record
+     * @param record to cache
+     * @param version to specify the version taken before the record was read
+     */
+    void load(@NotNull final ByteBuffer key, @NotNull final TimestampRecord record, final long version) {
+        final int stripe = stripe(key);
+        cache.asMap().compute(copy(key), (k, cached) -> {
+            if (cached != null) {
+                return record.getTimestamp() > cached.getTimestamp() ? record : cached;
+            }
+            return versions.get(stripe) == version ? record : null;
+        });
+    }
+
+    /**
+     * Put the written record unless the cached one is later, it must be called after the record is written.
+     * The record written at the same time replaces the cached one, the same way it replaces the stored one.
+     *
+     * @param key to identify the record
+     * @param record to cache
+     */
+    void update(@NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+        versions.incrementAndGet(stripe(key));
+        cache.asMap().merge(copy(key), record,
+                (cached, fresh) -> fresh.getTimestamp() >= cached.getTimestamp() ? fresh : cached);
+    }
+
+    /**
+     * Drop the purged record, it must be called after the record is deleted.
+     *
+     * @param key to identify the record
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        versions.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    private static int stripe(@NotNull final ByteBuffer key) {
+        return key.hashCode() & (VERSION_STRIPES - 1);
+    }
+
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    private static int weigh(@NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+        return ENTRY_OVERHEAD + key.remaining() + record.getValueSize();
+    }
+
+    @NotNull
+    private static ByteBuffer copy(@NotNull final ByteBuffer key) {
+        final ByteBuffer duplicate = key.duplicate();
+        final byte[] array = new byte[duplicate.remaining()];
+        duplicate.get(array);
+        return ByteBuffer.wrap(array);
+    }
+}
@@ -0,0 +1,69 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Forward-only cursor over the records exposing the key and value arrays as they are read,
+ * so the records can be streamed without wrapping every one of them.
+ * The arrays are valid until the next {@link #advance()}.
+ */
+public interface RecordCursor extends AutoCloseable {
+    /**
+     * Move to the next record.
+     *
+     * @return {@code false} if there are no more records
+     * @throws IOException in case of read error
+     */
+    boolean advance() throws IOException;
+
+    @NotNull
+    byte[] key();
+
+    @NotNull
+    byte[] value();
+
+    int valueOffset();
+
+    int valueLength();
+
+    /**
+     * Key to continue the range from once the cursor is exhausted.
+     *
+     * @return key of the first record left out, {@code null} if the range is complete
+     */
+    @Nullable
+    default byte[] continuation() {
+        return null;
+    }
+
+    @Override
+    void close();
+
+    /**
+     * Wrap the iterator of records copying every key and value.
+     *
+     * @param records to wrap
+     * @return cursor over the records
+     */
+    @NotNull
+    static RecordCursor of(@NotNull final Iterator<Record> records) {
+        return new IteratorCursor(records);
+    }
+
+    /**
+     * Limit the amount of the records, the first record left out is kept as the continuation.
+     *
+     * @param records to limit, closed with the returned cursor
+     * @param limit to specify the maximal amount of the records
+     * @return cursor over the first records
+     */
+    @NotNull
+    static RecordCursor limit(@NotNull final RecordCursor records, final int limit) {
+        return new LimitedCursor(records, limit);
+    }
+}
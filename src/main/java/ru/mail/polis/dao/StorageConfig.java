@@ -0,0 +1,289 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.rocksdb.CompressionType;
+
+import java.util.List;
+
+/**
+ * Tunable options of the {@link DAO} storage, see {@link DAOFactory#create(java.io.File, StorageConfig)}.
+ * The options are set with the {@link Builder}, the ones not set keep their defaults.
+ */
+public final class StorageConfig {
+    /**
+     * Durability of the acknowledged writes.
+     */
+    public enum Durability {
+        /**
+         * No write ahead log, the writes since the last flush are lost on crash.
+         */
+        NONE,
+        /**
+         * Writes are durable on return, the concurrent ones share a WAL sync.
+         */
+        GROUP_COMMIT,
+        /**
+         * Writes are durable on return, each one syncs the WAL.
+         */
+        SYNC
+    }
+
+    private final int bloomBitsPerKey;
+    private final long blockCacheBytes;
+    private final long blockSize;
+    private final boolean pinL0FilterAndIndexBlocks;
+    private final boolean partitionedIndex;
+    @Nullable
+    private final List<CompressionType> compressionPerLevel;
+    private final long readCacheBytes;
+    private final Durability durability;
+    private final long groupCommitWindowMicros;
+    private final long gcGraceSeconds;
+    private final long maxHintBytes;
+    private final boolean statistics;
+
+    private StorageConfig(@NotNull final Builder builder) {
+        this.bloomBitsPerKey = builder.bloomBitsPerKey;
+        this.blockCacheBytes = builder.blockCacheBytes;
+        this.blockSize = builder.blockSize;
+        this.pinL0FilterAndIndexBlocks = builder.pinL0FilterAndIndexBlocks;
+        this.partitionedIndex = builder.partitionedIndex;
+        this.compressionPerLevel = builder.compressionPerLevel;
+        this.readCacheBytes = builder.readCacheBytes;
+        this.durability = builder.durability;
+        this.groupCommitWindowMicros = builder.groupCommitWindowMicros;
+        this.gcGraceSeconds = builder.gcGraceSeconds;
+        this.maxHintBytes = builder.maxHintBytes;
+        this.statistics = builder.statistics;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getBloomBitsPerKey() {
+        return bloomBitsPerKey;
+    }
+
+    public long getBlockCacheBytes() {
+        return blockCacheBytes;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public boolean isPinL0FilterAndIndexBlocks() {
+        return pinL0FilterAndIndexBlocks;
+    }
+
+    public boolean isPartitionedIndex() {
+        return partitionedIndex;
+    }
+
+    @Nullable
+    public List<CompressionType> getCompressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    public long getReadCacheBytes() {
+        return readCacheBytes;
+    }
+
+    @NotNull
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public long getGroupCommitWindowMicros() {
+        return groupCommitWindowMicros;
+    }
+
+    public long getGcGraceSeconds() {
+        return gcGraceSeconds;
+    }
+
+    public long getMaxHintBytes() {
+        return maxHintBytes;
+    }
+
+    public boolean isStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Builder of the {@link StorageConfig}.
+     */
+    public static final class Builder {
+        private int bloomBitsPerKey = 10;
+        private long blockCacheBytes = 32L * 1024 * 1024;
+        private long blockSize = 4 * 1024;
+        private boolean pinL0FilterAndIndexBlocks = true;
+        private boolean partitionedIndex;
+        @Nullable
+        private List<CompressionType> compressionPerLevel;
+        private long readCacheBytes = 16L * 1024 * 1024;
+        private Durability durability = Durability.NONE;
+        private long groupCommitWindowMicros = 2000;
+        private long gcGraceSeconds = 3600;
+        private long maxHintBytes = 64L * 1024 * 1024;
+        private boolean statistics;
+
+        private Builder() {
+            // Created by StorageConfig.builder()
+        }
+
+        /**
+         * Set the bits per key of the bloom filters, {@code 0} disables the filters.
+         *
+         * @param bloomBitsPerKey to specify the bits per key
+         * @return this builder
+         */
+        @NotNull
+        public Builder bloomBitsPerKey(final int bloomBitsPerKey) {
+            this.bloomBitsPerKey = bloomBitsPerKey;
+            return this;
+        }
+
+        /**
+         * Set the size of the LRU block cache shared by all the tables, allocated off heap.
+         *
+         * @param blockCacheBytes to specify the size in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockCacheBytes(final long blockCacheBytes) {
+            this.blockCacheBytes = blockCacheBytes;
+            return this;
+        }
+
+        /**
+         * Set the size of the table blocks.
+         *
+         * @param blockSize to specify the size in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockSize(final long blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Keep the filter and index blocks of level 0 pinned in the block cache.
+         *
+         * @param pinL0FilterAndIndexBlocks to specify if the blocks are pinned
+         * @return this builder
+         */
+        @NotNull
+        public Builder pinL0FilterAndIndexBlocks(final boolean pinL0FilterAndIndexBlocks) {
+            this.pinL0FilterAndIndexBlocks = pinL0FilterAndIndexBlocks;
+            return this;
+        }
+
+        /**
+         * Use partitioned index and filters, so only the partitions in use are kept in the block cache.
+         *
+         * @param partitionedIndex to specify if the index is partitioned
+         * @return this builder
+         */
+        @NotNull
+        public Builder partitionedIndex(final boolean partitionedIndex) {
+            this.partitionedIndex = partitionedIndex;
+            return this;
+        }
+
+        /**
+         * Set the compression of each level starting from level 0.
+         *
+         * @param compressionPerLevel to specify the compression, {@code null} means no compression at all
+         * @return this builder
+         */
+        @NotNull
+        public Builder compressionPerLevel(@Nullable final List<CompressionType> compressionPerLevel) {
+            this.compressionPerLevel = compressionPerLevel == null ? null : List.copyOf(compressionPerLevel);
+            return this;
+        }
+
+        /**
+         * Set the size of the on heap cache of the records with timestamp, {@code 0} disables the cache.
+         *
+         * @param readCacheBytes to specify the size in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder readCacheBytes(final long readCacheBytes) {
+            this.readCacheBytes = readCacheBytes;
+            return this;
+        }
+
+        /**
+         * Set the durability of the acknowledged writes.
+         *
+         * @param durability to specify the durability
+         * @return this builder
+         */
+        @NotNull
+        public Builder durability(@NotNull final Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Set the time to gather the concurrent writes into one WAL sync in the {@link Durability#GROUP_COMMIT} mode.
+         *
+         * @param groupCommitWindowMicros to specify the time in microseconds
+         * @return this builder
+         */
+        @NotNull
+        public Builder groupCommitWindowMicros(final long groupCommitWindowMicros) {
+            this.groupCommitWindowMicros = groupCommitWindowMicros;
+            return this;
+        }
+
+        /**
+         * Set the time the tombstones are kept after removal and the expired records after expiration,
+         * the purge removes the older ones.
+         *
+         * @param gcGraceSeconds to specify the time in seconds
+         * @return this builder
+         */
+        @NotNull
+        public Builder gcGraceSeconds(final long gcGraceSeconds) {
+            this.gcGraceSeconds = gcGraceSeconds;
+            return this;
+        }
+
+        /**
+         * Set the disk space of the hints for the unavailable replicas, the hints over it are dropped.
+         *
+         * @param maxHintBytes to specify the size in bytes
+         * @return this builder
+         */
+        @NotNull
+        public Builder maxHintBytes(final long maxHintBytes) {
+            this.maxHintBytes = maxHintBytes;
+            return this;
+        }
+
+        /**
+         * Collect the RocksDB statistics, e.g. the lookups ruled out by the bloom filters.
+         * It costs a few percent of the throughput.
+         *
+         * @param statistics to specify if the statistics are collected
+         * @return this builder
+         */
+        @NotNull
+        public Builder statistics(final boolean statistics) {
+            this.statistics = statistics;
+            return this;
+        }
+
+        @NotNull
+        public StorageConfig build() {
+            return new StorageConfig(this);
+        }
+    }
+}
@@ -5,17 +5,26 @@ import org.jetbrains.annotations.Nullable;
 import org.rocksdb.RocksDBException;
 
 import java.nio.ByteBuffer;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TimestampRecord {
+    /**
+     * Expiration time of the records without TTL.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private static final AtomicLong CLOCK = new AtomicLong();
 
     private final long timestamp;
     private final ByteBuffer value;
     private final RecordType recordType;
+    private final long expiresAt;
 
     private enum RecordType {
         VALUE((byte) 1),
+        EXPIRING((byte) 2),
         DELETED((byte) -1),
         ABSENT((byte) 0);
 
@@ -28,6 +37,8 @@ public class TimestampRecord {
         static RecordType fromValue(final byte value) {
             if (value == VALUE.value) {
                 return VALUE;
+            } else if (value == EXPIRING.value) {
+                return EXPIRING;
             } else if (value == DELETED.value) {
                 return DELETED;
             } else {
@@ -45,9 +56,25 @@ public class TimestampRecord {
      */
     public TimestampRecord(final long timestamp, final ByteBuffer value,
                                final RecordType type) {
+        this(timestamp, value, type, NEVER);
+    }
+
+    private TimestampRecord(final long timestamp, final ByteBuffer value,
+                            final RecordType type, final long expiresAt) {
         this.timestamp = timestamp;
         this.recordType = type;
         this.value = value;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Get the timestamp for a new record, it never goes back even if the wall clock does.
+     * It doesn't run ahead of the wall clock either, so the records created within a millisecond share it.
+     *
+     * @return current time in milliseconds or the previous timestamp if it is later
+     */
+    public static long now() {
+        return CLOCK.accumulateAndGet(System.currentTimeMillis(), Math::max);
     }
 
     public static TimestampRecord getEmpty() {
@@ -67,7 +94,8 @@ public class TimestampRecord {
         final var buffer = ByteBuffer.wrap(bytes);
         final var recordType = RecordType.fromValue(buffer.get());
         final var timestamp = buffer.getLong();
-        return new TimestampRecord(timestamp, buffer, recordType);
+        final var expiresAt = recordType == RecordType.EXPIRING ? buffer.getLong() : NEVER;
+        return new TimestampRecord(timestamp, buffer, recordType, expiresAt);
     }
 
     /**
@@ -80,9 +108,13 @@ public class TimestampRecord {
         if (isValue()) {
             valueLength = value.remaining();
         }
-        final var byteBuff = ByteBuffer.allocate(1 + Long.BYTES + valueLength);
+        final var headerLength = recordType == RecordType.EXPIRING ? 1 + 2 * Long.BYTES : 1 + Long.BYTES;
+        final var byteBuff = ByteBuffer.allocate(headerLength + valueLength);
         byteBuff.put(recordType.value);
         byteBuff.putLong(getTimestamp());
+        if (recordType == RecordType.EXPIRING) {
+            byteBuff.putLong(expiresAt);
+        }
         if (isValue()) {
             byteBuff.put(value.duplicate());
         }
@@ -94,8 +126,98 @@ public class TimestampRecord {
         return new TimestampRecord(timestamp, value, RecordType.VALUE);
     }
 
+    /**
+     * Create the record expiring at the given time.
+     *
+     * @param value to define the value
+     * @param timestamp to define the time
+     * @param expiresAt to define the expiration time or {@link #NEVER}
+     * @return timestamp record instance
+     */
+    public static TimestampRecord fromValue(@NotNull final ByteBuffer value,
+                                            final long timestamp, final long expiresAt) {
+        if (expiresAt == NEVER) {
+            return fromValue(value, timestamp);
+        }
+        return new TimestampRecord(timestamp, value, RecordType.EXPIRING, expiresAt);
+    }
+
+    /**
+     * Check whether the encoded record holds the value which is not expired, without decoding it.
+     *
+     * @param bytes to specify the encoded record
+     * @param now to specify the current time
+     * @return {@code true} if the value is live
+     */
+    public static boolean isLive(@NotNull final byte[] bytes, final long now) {
+        if (bytes.length == 0) {
+            return false;
+        }
+        if (bytes[0] == RecordType.VALUE.value) {
+            return true;
+        }
+        return bytes[0] == RecordType.EXPIRING.value && readLong(bytes, 1 + Long.BYTES) > now;
+    }
+
+    /**
+     * Get the timestamp of the encoded record without decoding it.
+     *
+     * @param bytes to specify the encoded record
+     * @return timestamp of the record
+     */
+    public static long timestamp(@NotNull final byte[] bytes) {
+        return readLong(bytes, 1);
+    }
+
+    /**
+     * Get the offset of the value in the encoded record.
+     *
+     * @param bytes to specify the encoded record holding the value
+     * @return length of the header
+     */
+    public static int valueOffset(@NotNull final byte[] bytes) {
+        return bytes[0] == RecordType.EXPIRING.value ? 1 + 2 * Long.BYTES : 1 + Long.BYTES;
+    }
+
+    /**
+     * Order the encoded records by timestamp, the records written at the same time are ordered by their bytes,
+     * so that every replica picks the same one of them and a tombstone wins over a value.
+     *
+     * @param bytes to specify the encoded record
+     * @param other to specify the other encoded record
+     * @return positive if the record is newer than the other one, negative if older, zero if equal
+     */
+    public static int compare(@NotNull final byte[] bytes, @NotNull final byte[] other) {
+        final int result = Long.compare(timestamp(bytes), timestamp(other));
+        // The type of a tombstone is the greatest unsigned byte
+        return result == 0 ? Arrays.compareUnsigned(bytes, other) : result;
+    }
+
+    /**
+     * Order the records the same way as {@link #compare(byte[], byte[])} does, the absent record is the oldest.
+     *
+     * @param record to specify the record
+     * @param other to specify the other record
+     * @return positive if the record is newer than the other one, negative if older, zero if equal
+     */
+    public static int compare(@NotNull final TimestampRecord record, @NotNull final TimestampRecord other) {
+        if (record.isEmpty() || other.isEmpty()) {
+            return Boolean.compare(other.isEmpty(), record.isEmpty());
+        }
+        final int result = Long.compare(record.getTimestamp(), other.getTimestamp());
+        return result == 0 ? compare(record.toBytes(), other.toBytes()) : result;
+    }
+
+    private static long readLong(@NotNull final byte[] bytes, final int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + Long.BYTES; i++) {
+            result = (result << Byte.SIZE) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+
     public static boolean isEmptyRecord(@NotNull final byte[] bytes) {
-        return bytes[0] != RecordType.VALUE.value;
+        return bytes[0] != RecordType.VALUE.value && bytes[0] != RecordType.EXPIRING.value;
     }
 
     public static TimestampRecord tombstone(final long timestamp) {
@@ -107,7 +229,21 @@ public class TimestampRecord {
     }
 
     public boolean isValue() {
-        return recordType == RecordType.VALUE;
+        return recordType == RecordType.VALUE || recordType == RecordType.EXPIRING;
+    }
+
+    /**
+     * Check whether the value is expired, the expired value is treated as removed at its timestamp.
+     *
+     * @param now to specify the current time
+     * @return {@code true} if the record has TTL and it is over
+     */
+    public boolean isExpired(final long now) {
+        return recordType == RecordType.EXPIRING && expiresAt <= now;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
     }
 
     public boolean isEmpty() {
@@ -131,6 +267,10 @@ public class TimestampRecord {
         return value;
     }
 
+    public int getValueSize() {
+        return isValue() ? value.remaining() : 0;
+    }
+
     /**
      * Get the value only as bytes.
      *
@@ -144,7 +284,7 @@ public class TimestampRecord {
     }
 
     /**
-     * Merge multiple records into one according to their timestamps.
+     * Merge multiple records into one according to their timestamps, see {@link #compare(byte[], byte[])}.
      *
      * @param responses to define the input records
      * @return latest timestamp record instance
@@ -154,8 +294,26 @@ public class TimestampRecord {
         else {
             return responses.stream()
                     .filter(timestampRecord -> !timestampRecord.isEmpty())
-                    .max(Comparator.comparingLong(TimestampRecord::getTimestamp))
+                    .max(TimestampRecord::compare)
                     .orElseGet(TimestampRecord::getEmpty);
         }
     }
+
+    /**
+     * Merge two records according to their timestamps, the same way as {@link #merge(List)} does.
+     *
+     * @param current to specify the record merged so far, {@code null} if none
+     * @param other to specify the record to merge
+     * @return latest timestamp record instance
+     */
+    public static TimestampRecord latest(@Nullable final TimestampRecord current,
+                                         @NotNull final TimestampRecord other) {
+        if (current == null || current.isEmpty()) {
+            return other;
+        }
+        if (compare(other, current) <= 0) {
+            return current;
+        }
+        return other;
+    }
 }
@@ -25,11 +25,30 @@ package ru.mail.polis.service;
  * returns {@code 200} or {@code 503}</li>
  * <li>{@code GET /v0/entity?id=<ID>} --
  * get data by {@code ID}. Returns {@code 200} and data if found, {@code 404} if not found.</li>
- * <li>{@code GET /v0/entities?start=<ID>[&end=<ID>]} --
- * get range of data between {@code from} (inclusive) and optional {@code to} (exclusive).
- * Returns {@code 200} and HTTP chunked response with {@code <key>\n<value>} chunks.</li>
- * <li>{@code PUT /v0/entity?id=<ID>} --
- * upsert (create or replace) data by {@code ID}. Returns {@code 201}.</li>
+ * <li>{@code GET /v0/entities?start=<ID>|prefix=<ID>|token=<TOKEN>[&end=<ID>][&limit=<N>][&order=asc|desc]
+ * [&format=lines|frames]} --
+ * get range of data between {@code from} (inclusive) and optional {@code to} (exclusive)
+ * or of the keys with the prefix, up to {@code limit} records. The descending range goes from the last key
+ * and doesn't require the start, so that the last records are read without the whole range.
+ * If the range is cut by the limit, the last record has the empty key and the token as the value
+ * to request the next page with the same parameters, the {@code X-Continuation} trailer repeats the token.
+ * In the cluster the ranges of all the nodes are merged, the latest value of every key wins.
+ * Returns {@code 200} and HTTP chunked response with {@code <key>\n<value>} chunks by default
+ * or {@code <length><key><length><value>} entries packed into the chunks up to 64 KB,
+ * {@code 504} if too few nodes answered or {@code 503} if too many ranges are streaming.</li>
+ * <li>{@code PUT /v0/entities[?replicas=ack/from]} --
+ * upsert a batch of {@code <length><key><length><value>} entries from the body. Returns {@code 201}.
+ * In the cluster every entry is written to its own replicas and the body has a byte per entry:
+ * {@code 1} if the entry is acked by {@code ack} replicas or {@code 0} otherwise,
+ * {@code 504} is returned instead of {@code 201} if any entry isn't acked.</li>
+ * <li>{@code POST /v0/entities[?replicas=ack/from]} --
+ * get a batch of {@code <length><key>} entries from the body. Returns {@code 200} and
+ * {@code <length><key><length><value>} entries, length {@code -1} marks an absent value.
+ * In the cluster the latest record of {@code ack} replicas wins for every entry,
+ * {@code 504} is returned if any entry isn't answered by {@code ack} replicas.</li>
+ * <li>{@code PUT /v0/entity?id=<ID>[&ttl=<seconds>]} --
+ * upsert (create or replace) data by {@code ID}, the data with {@code ttl} is not found after it expires.
+ * Returns {@code 201}. TTL is supported by the cluster only.</li>
  * <li>{@code DELETE /v0/entity?id=<ID>} --
  * remove data by {@code ID}. Returns {@code 202}.</li>
  * </ul>
@@ -23,8 +23,9 @@ import java.util.Set;
 import org.jetbrains.annotations.NotNull;
 
 import ru.mail.polis.dao.DAO;
-import ru.mail.polis.service.hljavacourse.ClusterNodes;
 import ru.mail.polis.service.hljavacourse.AsyncHttpService;
+import ru.mail.polis.service.hljavacourse.ConsistentHashTopology;
+import ru.mail.polis.service.hljavacourse.Topology;
 
 /**
  * Constructs {@link Service} instances.
@@ -33,6 +34,7 @@ import ru.mail.polis.service.hljavacourse.AsyncHttpService;
  */
 public final class ServiceFactory {
     private static final long MAX_HEAP = 256 * 1024 * 1024;
+    private static final int VIRTUAL_NODES = 128;
 
     private ServiceFactory() {
         // Not supposed to be instantiated
@@ -59,7 +61,8 @@ public final class ServiceFactory {
             throw new IllegalArgumentException("Port out of range");
         }
 
-        final ClusterNodes nodes = new ClusterNodes(topology, "http://localhost:" + port);
+        final Topology<String> nodes =
+                new ConsistentHashTopology(topology, "http://localhost:" + port, VIRTUAL_NODES);
         return AsyncHttpService.create(port, dao, nodes);
     }
 }
@@ -0,0 +1,461 @@
+package ru.mail.polis.service.hljavacourse;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.DigestIndex;
+import ru.mail.polis.dao.RecordCursor;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Background anti-entropy between the replicas.
+ * Every peer has its own Merkle tree over the keys both nodes replicate: the leaves are the {@link DigestIndex}
+ * buckets holding the XOR of the record hashes and every inner node is the XOR of its children.
+ * The buckets are chosen by the hash of the key, so the keys sharing a prefix spread over all the leaves.
+ * Only the keys written since the last round are rehashed, and the peers walk down the subtrees which differ,
+ * so that a round costs as much as the recent writes and the divergence rather than the whole storage.
+ * The records of the differing buckets are pulled from the peer and merged by timestamp,
+ * the peer pulls the records missing on its side in its own round.
+ * The replicas store the record with the timestamp of the coordinator, so the same write hashes the same on all.
+ */
+final class AntiEntropy {
+    static final String DIGESTS_PATH = "/v0/digests";
+    static final String RANGES_PATH = "/v0/ranges";
+
+    private static final Logger logger = Logger.getLogger(AntiEntropy.class.getName());
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final int FANOUT_BITS = 4;
+    private static final int LEAF_LEVEL = Integer.numberOfTrailingZeros(DigestIndex.BUCKETS) / FANOUT_BITS;
+    private static final int BUCKETS_PER_REQUEST = 4;
+    private static final int KEYS_PER_READ = 256;
+    private static final int PARTIAL_CONTENT = 206;
+    // The records over it are left to the next request, so the large buckets don't take the heap of both nodes
+    private static final int MAX_RECORDS_BYTES = 1024 * 1024;
+
+    @NotNull
+    private final RoutingTable routing;
+    @NotNull
+    private final DAORocksDB dao;
+    @NotNull
+    private final DigestIndex index;
+    private final int replicas;
+    private final int me;
+    // Digests of the tree levels from the root to the leaves for every peer, null for this node
+    private long[][][] trees;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong pulledBuckets = new AtomicLong();
+    private final AtomicLong repaired = new AtomicLong();
+
+    /**
+     * Create the anti-entropy and start the rounds.
+     *
+     * @param routing to specify the routing table of the cluster
+     * @param dao to specify the local replica
+     * @param replicas to specify the amount of replicas of every key
+     * @param periodMillis to specify the delay between the rounds
+     * @throws IOException if the digest index can't be opened
+     */
+    AntiEntropy(@NotNull final RoutingTable routing, @NotNull final DAORocksDB dao, final int replicas,
+                final long periodMillis) throws IOException {
+        this.routing = routing;
+        this.dao = dao;
+        this.index = dao.getDigests();
+        this.replicas = replicas;
+        int self = -1;
+        for (int node = 0; node < routing.size(); node++) {
+            if (routing.isLocal(node)) {
+                self = node;
+            }
+        }
+        this.me = self;
+        this.trees = newTrees();
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("anti-entropy").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::round, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @NotNull
+    private long[][][] newTrees() {
+        final long[][][] fresh = new long[routing.size()][][];
+        for (int node = 0; node < routing.size(); node++) {
+            if (routing.isLocal(node)) {
+                continue;
+            }
+            fresh[node] = new long[LEAF_LEVEL + 1][];
+            for (int level = 0; level <= LEAF_LEVEL; level++) {
+                fresh[node][level] = new long[1 << (level * FANOUT_BITS)];
+            }
+        }
+        return fresh;
+    }
+
+    private void round() {
+        try {
+            refresh();
+            for (int node = 0; node < routing.size(); node++) {
+                if (!routing.isLocal(node)) {
+                    synchronize(node);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Exception in anti-entropy round: ", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rehash the keys changed since the previous refresh, or all the keys if there were too many of them.
+     * The records are read and hashed outside the lock, so the digests served to the peers don't wait for them.
+     */
+    private void refresh() throws IOException {
+        final List<ByteBuffer> keys = dao.getChangedKeys().drain();
+        if (keys == null) {
+            rebuild();
+            return;
+        }
+        // The XOR of the old and the new hashes of the bucket for every node
+        final Map<Integer, long[]> deltas = new HashMap<>();
+        for (final ByteBuffer key : keys) {
+            final byte[] record = stored(key);
+            final long hash = record == null ? 0 : hash(key, record);
+            final long delta = index.update(key, hash) ^ hash;
+            if (delta != 0) {
+                add(deltas.computeIfAbsent(DigestIndex.bucketOf(key), bucket -> new long[routing.size()]), key, delta);
+            }
+        }
+        apply(deltas);
+    }
+
+    private synchronized void apply(@NotNull final Map<Integer, long[]> deltas) {
+        for (final Map.Entry<Integer, long[]> bucket : deltas.entrySet()) {
+            for (int node = 0; node < trees.length; node++) {
+                if (trees[node] != null) {
+                    update(trees[node], bucket.getKey(), bucket.getValue()[node]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rehash all the keys into the new trees and swap them in.
+     */
+    private void rebuild() throws IOException {
+        index.clear();
+        final long[][][] fresh = newTrees();
+        final long[] leaves = new long[routing.size()];
+        try (RecordCursor records = dao.recordRange(ByteBuffer.allocate(0), null)) {
+            while (records.advance()) {
+                final ByteBuffer key = ByteBuffer.wrap(records.key());
+                final long hash = hash(key, records.value());
+                index.update(key, hash);
+                Arrays.fill(leaves, 0L);
+                add(leaves, key, hash);
+                final int bucket = DigestIndex.bucketOf(key);
+                for (int node = 0; node < fresh.length; node++) {
+                    if (fresh[node] != null) {
+                        update(fresh[node], bucket, leaves[node]);
+                    }
+                }
+            }
+        }
+        synchronized (this) {
+            trees = fresh;
+        }
+    }
+
+    /**
+     * Add the hash to the digests of the nodes sharing the key with this node.
+     */
+    private void add(@NotNull final long[] digests, @NotNull final ByteBuffer key, final long hash) {
+        final RoutingTable.Replicas nodes = routing.replicas(replicas, key);
+        if (!contains(nodes, me)) {
+            return;
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            digests[nodes.get(i)] ^= hash;
+        }
+    }
+
+    private static void update(@NotNull final long[][] tree, final int bucket, final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        int index = bucket;
+        for (int level = LEAF_LEVEL; level >= 0; level--) {
+            tree[level][index] ^= delta;
+            index >>>= FANOUT_BITS;
+        }
+    }
+
+    private static long hash(@NotNull final ByteBuffer key, @NotNull final byte[] record) {
+        return HASH.newHasher(key.remaining() + record.length + Integer.BYTES)
+                .putInt(key.remaining())
+                .putBytes(key.duplicate())
+                .putBytes(record)
+                .hash()
+                .asLong();
+    }
+
+    /**
+     * Read the stored record bypassing the read cache, so the scans of the anti-entropy don't evict the hot records.
+     *
+     * @return encoded record or {@code null} if it is absent
+     */
+    @Nullable
+    private byte[] stored(@NotNull final ByteBuffer key) throws IOException {
+        final ByteBuffer value;
+        try {
+            value = dao.get(key);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        final byte[] record = new byte[value.remaining()];
+        value.get(record);
+        return record;
+    }
+
+    private static boolean contains(@NotNull final RoutingTable.Replicas nodes, final int node) {
+        for (int i = 0; i < nodes.size(); i++) {
+            if (nodes.get(i) == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walk down the subtrees which differ from the peer ones and pull the differing buckets.
+     */
+    private void synchronize(final int node) throws IOException, InterruptedException {
+        int[] differing = {0};
+        for (int level = 0; level <= LEAF_LEVEL && differing.length > 0; level++) {
+            final int[] indices = level == 0 ? differing : children(differing);
+            final long[] remote = fetchDigests(node, level, indices);
+            if (remote == null || remote.length != indices.length) {
+                return;
+            }
+            final long[] local = digests(node, level, indices);
+            int count = 0;
+            for (int i = 0; i < indices.length; i++) {
+                if (local[i] != remote[i]) {
+                    indices[count++] = indices[i];
+                }
+            }
+            differing = Arrays.copyOf(indices, count);
+        }
+        for (int i = 0; i < differing.length; i += BUCKETS_PER_REQUEST) {
+            if (!pull(node, Arrays.copyOfRange(differing, i, Math.min(differing.length, i + BUCKETS_PER_REQUEST)))) {
+                return;
+            }
+        }
+    }
+
+    @NotNull
+    private static int[] children(@NotNull final int[] parents) {
+        final int fanout = 1 << FANOUT_BITS;
+        final int[] children = new int[parents.length * fanout];
+        for (int i = 0; i < parents.length; i++) {
+            for (int child = 0; child < fanout; child++) {
+                children[i * fanout + child] = parents[i] << FANOUT_BITS | child;
+            }
+        }
+        return children;
+    }
+
+    @Nullable
+    private long[] fetchDigests(final int node, final int level, @NotNull final int[] indices)
+            throws InterruptedException {
+        final HttpResponse<byte[]> response = send(node, DIGESTS_PATH + "?peer=" + me + "&level=" + level, indices);
+        return response == null ? null : BatchCodec.decodeLongs(response.body());
+    }
+
+    /**
+     * Pull the records of the buckets, the partial responses are continued after their last key.
+     */
+    private boolean pull(final int node, @NotNull final int[] buckets) throws IOException, InterruptedException {
+        int[] remaining = buckets;
+        String token = null;
+        while (true) {
+            final HttpResponse<byte[]> response = send(node,
+                    RANGES_PATH + "?peer=" + me + (token == null ? "" : "&token=" + token), remaining);
+            if (response == null) {
+                return false;
+            }
+            ByteBuffer last = null;
+            for (final Record record : BatchCodec.decodeRecords(response.body())) {
+                final byte[] bytes = new byte[record.getValue().remaining()];
+                record.getValue().duplicate().get(bytes);
+                if (dao.mergeRecordWithTimestamp(record.getKey(), TimestampRecord.fromBytes(bytes))) {
+                    repaired.incrementAndGet();
+                }
+                last = record.getKey();
+            }
+            if (response.statusCode() != PARTIAL_CONTENT || last == null) {
+                pulledBuckets.addAndGet(buckets.length);
+                return true;
+            }
+            // The buckets before the one of the last key are complete
+            final int bucket = DigestIndex.bucketOf(last);
+            int first = 0;
+            while (remaining[first] != bucket) {
+                first++;
+            }
+            remaining = Arrays.copyOfRange(remaining, first, remaining.length);
+            final byte[] key = new byte[last.remaining()];
+            last.duplicate().get(key);
+            token = RequestUtils.continuationToken(key);
+        }
+    }
+
+    @Nullable
+    private HttpResponse<byte[]> send(final int node, @NotNull final String uri, @NotNull final int[] indices)
+            throws InterruptedException {
+        final HttpRequest request = RequestUtils.requestBase(routing.node(node), uri)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(BatchCodec.encodeInts(indices)))
+                .build();
+        try {
+            final HttpResponse<byte[]> response = routing.client(node).send(request, BodyHandlers.ofByteArray());
+            return response.statusCode() == 200 || response.statusCode() == PARTIAL_CONTENT
+                    ? response
+                    : null;
+        } catch (IOException e) {
+            // The peer is down, it is synchronized in the next rounds
+            return null;
+        }
+    }
+
+    /**
+     * Check the tree nodes requested by the peer.
+     *
+     * @param peer to specify the index of the peer node
+     * @param level to specify the tree level, {@code 0} for the root
+     * @param indices to specify the indices of the tree nodes within the level
+     * @throws IllegalArgumentException if the peer, the level or the indices are out of the tree
+     */
+    void check(final int peer, final int level, @NotNull final int[] indices) {
+        if (peer < 0 || peer >= routing.size() || routing.isLocal(peer)) {
+            throw new IllegalArgumentException("Wrong peer: " + peer);
+        }
+        if (level < 0 || level > LEAF_LEVEL) {
+            throw new IllegalArgumentException("Wrong level: " + level);
+        }
+        for (final int index : indices) {
+            if (index < 0 || index >= 1 << (level * FANOUT_BITS)) {
+                throw new IllegalArgumentException("Wrong tree node: " + index);
+            }
+        }
+    }
+
+    /**
+     * Get the digests of the tree shared with the peer.
+     * The lock is held only to copy the digests, the refresh hashes the records before it takes the lock.
+     *
+     * @param peer to specify the index of the peer node
+     * @param level to specify the tree level, {@code 0} for the root
+     * @param indices to specify the indices of the tree nodes checked by {@link #check(int, int, int[])}
+     * @return digests in the order of indices
+     */
+    @NotNull
+    synchronized long[] digests(final int peer, final int level, @NotNull final int[] indices) {
+        final long[] result = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            result[i] = trees[peer][level][indices[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Read the records of the buckets replicated by the peer.
+     * The response is cut after about {@link #MAX_RECORDS_BYTES} of the records, but it has one record at least,
+     * and the peer continues it after the last key.
+     *
+     * @param peer to specify the index of the peer node
+     * @param buckets to specify the indices of the leaves checked by {@link #check(int, int, int[])}
+     * @param after to specify the key of the first bucket to continue after, {@code null} to start from the first
+     * @return {@code 200} with the records encoded by {@link BatchCodec#encodeValues(List, List)}
+     *         or {@code 206} with the first of them if the rest is left to the next request
+     * @throws IOException in case of read error
+     */
+    @NotNull
+    Response records(final int peer, @NotNull final int[] buckets, @Nullable final ByteBuffer after)
+            throws IOException {
+        final List<ByteBuffer> keys = new ArrayList<>();
+        final List<ByteBuffer> values = new ArrayList<>();
+        long bytes = 0;
+        ByteBuffer from = after;
+        for (final int bucket : buckets) {
+            List<ByteBuffer> indexed;
+            do {
+                indexed = index.keys(bucket, from, KEYS_PER_READ);
+                for (final ByteBuffer key : indexed) {
+                    if (bytes >= MAX_RECORDS_BYTES) {
+                        return new Response(Response.PARTIAL_CONTENT, BatchCodec.encodeValues(keys, values));
+                    }
+                    final RoutingTable.Replicas nodes = routing.replicas(replicas, key);
+                    // The same keys are hashed into the trees on both sides
+                    if (!contains(nodes, peer) || !contains(nodes, me)) {
+                        continue;
+                    }
+                    final byte[] record = stored(key);
+                    if (record != null) {
+                        keys.add(key);
+                        values.add(ByteBuffer.wrap(record));
+                        bytes += key.remaining() + record.length;
+                    }
+                }
+                from = indexed.isEmpty() ? null : indexed.get(indexed.size() - 1);
+            } while (indexed.size() == KEYS_PER_READ);
+            from = null;
+        }
+        return Response.ok(BatchCodec.encodeValues(keys, values));
+    }
+
+    static int leafLevel() {
+        return LEAF_LEVEL;
+    }
+
+    long getPulledBucketCount() {
+        return pulledBuckets.get();
+    }
+
+    long getRepairedCount() {
+        return repaired.get();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        try {
+            // The storage is closed after the service, so the round in progress has to complete first
+            if (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Anti-entropy round didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package ru.mail.polis.service.hljavacourse;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import one.nio.http.HttpServer;
 import one.nio.http.HttpServerConfig;
 import one.nio.http.HttpSession;
@@ -9,24 +8,31 @@ import one.nio.http.Response;
 import one.nio.http.Request;
 import one.nio.net.Socket;
 import one.nio.server.AcceptorConfig;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.Record;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.DigestIndex;
+import ru.mail.polis.dao.RecordCursor;
+import ru.mail.polis.dao.ReadCache;
+import ru.mail.polis.dao.TimestampRecord;
 import ru.mail.polis.service.Service;
 
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Version;
-import java.net.http.HttpClient.Redirect;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.HashMap;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,9 +40,19 @@ public class AsyncHttpService extends HttpServer implements Service {
     @NotNull
     private final DAORocksDB dao;
     @NotNull
-    private final Executor workerThreads;
-    private final ClusterNodes nodes;
+    private final StorageExecutor storage;
+    private final RoutingTable routing;
     private final Coordinators clusterCoordinator;
+    @Nullable
+    private final ScheduledExecutorService purger;
+
+    private static final int STORAGE_THREADS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int STORAGE_QUEUE_CAPACITY = 1024;
+    private static final long PURGE_PERIOD_SECONDS = 60;
+    private static final long PURGE_STOP_TIMEOUT_SECONDS = 30;
+    private static final int PEER_THREADS = 2;
+    private static final int PEER_MAX_IN_FLIGHT = 256;
+    private static final int PEER_MAX_QUEUED = 1024;
 
     private static final Logger logger = Logger.getLogger(AsyncHttpService.class.getName());
 
@@ -45,19 +61,24 @@ public class AsyncHttpService extends HttpServer implements Service {
      *
      * @param config HTTP server configurations
      * @param dao to initialize the DAO instance within the server
-     * @param nodes to represent cluster nodes
-     * @param clusterClients initialized cluster clients
+     * @param routing to represent cluster nodes and their clients
      */
-    public AsyncHttpService(final HttpServerConfig config, @NotNull final DAO dao,
-                            @NotNull final ClusterNodes nodes,
-                            @NotNull final Map<String, HttpClient> clusterClients) throws IOException {
+    AsyncHttpService(final HttpServerConfig config, @NotNull final DAO dao,
+                     @NotNull final RoutingTable routing) throws IOException {
         super(config);
         this.dao = (DAORocksDB) dao;
 
-        this.workerThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
-                new ThreadFactoryBuilder().setNameFormat("worker").build());
-        this.nodes = nodes;
-        this.clusterCoordinator = new Coordinators(nodes, clusterClients, dao);
+        this.storage = new StorageExecutor(STORAGE_THREADS, STORAGE_QUEUE_CAPACITY);
+        this.routing = routing;
+        this.clusterCoordinator = new Coordinators(routing, dao, storage);
+        if (routing.size() > 1) {
+            // Only the cluster stores the records with timestamp
+            this.purger = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("purger").setDaemon(true).build());
+            purger.scheduleWithFixedDelay(this::purge, PURGE_PERIOD_SECONDS, PURGE_PERIOD_SECONDS, TimeUnit.SECONDS);
+        } else {
+            this.purger = null;
+        }
     }
 
     /**
@@ -68,25 +89,20 @@ public class AsyncHttpService extends HttpServer implements Service {
      * @return config
      */
     public static Service create(final int port, @NotNull final DAO dao,
-                                 @NotNull final ClusterNodes nodes) throws IOException {
+                                 @NotNull final Topology<String> nodes) throws IOException {
         final var acceptor = new AcceptorConfig();
         final var config = new HttpServerConfig();
-        final String localhost = "http://localhost:";
         acceptor.port = port;
         config.acceptors = new AcceptorConfig[]{acceptor};
         config.maxWorkers = Runtime.getRuntime().availableProcessors();
         config.queueTime = 10;
-        final Map<String, HttpClient> clusterClients = new HashMap<>();
-        for (final Integer it : nodes.getPorts()) {
-            if (!nodes.getId().equals(localhost + it) && !clusterClients.containsKey(localhost + it)) {
-                final HttpClient client = HttpClient.newBuilder()
-                        .version(Version.HTTP_2)
-                        .followRedirects(Redirect.NEVER)
-                        .build();
-                clusterClients.put(localhost + it, client);
+        final Map<String, PeerClient> clusterClients = new HashMap<>();
+        for (final String node : nodes.all()) {
+            if (!nodes.isMe(node)) {
+                clusterClients.put(node, new PeerClient(node, PEER_THREADS, PEER_MAX_IN_FLIGHT, PEER_MAX_QUEUED));
             }
         }
-        return new AsyncHttpService(config, dao, nodes, clusterClients);
+        return new AsyncHttpService(config, dao, new RoutingTable(nodes, clusterClients));
     }
 
     @Override
@@ -104,6 +120,78 @@ public class AsyncHttpService extends HttpServer implements Service {
         return Response.ok("OK");
     }
 
+    /**
+     * Serve requests for metrics.
+     *
+     * @return metrics as {@code <name> <value>} lines
+     */
+    @Path("/v0/metrics")
+    public Response metrics() {
+        final StringBuilder metrics = new StringBuilder()
+                .append("storage.queue.depth ").append(storage.getQueueDepth()).append('\n')
+                .append("storage.active ").append(storage.getActiveCount()).append('\n')
+                .append("storage.completed ").append(storage.getCompletedCount()).append('\n')
+                .append("storage.rejected ").append(storage.getRejectedCount()).append('\n')
+                .append("storage.purged.expired ").append(dao.getPurgedExpiredCount()).append('\n')
+                .append("storage.purged.tombstones ").append(dao.getPurgedTombstoneCount()).append('\n')
+                .append("repair.sent ").append(clusterCoordinator.getRepairer().getSentCount()).append('\n')
+                .append("repair.dropped ").append(clusterCoordinator.getRepairer().getDroppedCount()).append('\n')
+                .append("repair.failed ").append(clusterCoordinator.getRepairer().getFailedCount()).append('\n')
+                .append("hints.stored ").append(clusterCoordinator.getHandoff().getStoredCount()).append('\n')
+                .append("hints.dropped ").append(clusterCoordinator.getHandoff().getDroppedCount()).append('\n')
+                .append("hints.rejected ").append(clusterCoordinator.getHandoff().getRejectedCount()).append('\n')
+                .append("hints.replayed ").append(clusterCoordinator.getHandoff().getReplayedCount()).append('\n')
+                .append("hints.bytes ").append(clusterCoordinator.getHandoff().getBytes()).append('\n')
+                .append("antientropy.buckets ").append(clusterCoordinator.getAntiEntropy().getPulledBucketCount())
+                .append('\n')
+                .append("antientropy.repaired ").append(clusterCoordinator.getAntiEntropy().getRepairedCount())
+                .append('\n');
+        for (int node = 0; node < routing.size(); node++) {
+            final PeerClient client = routing.client(node);
+            if (client != null) {
+                final String peer = "peer." + client.authority();
+                metrics.append(peer).append(".inflight ").append(client.getInFlight()).append('\n')
+                        .append(peer).append(".queued ").append(client.getQueued()).append('\n')
+                        .append(peer).append(".rejected ").append(client.getRejectedCount()).append('\n');
+            }
+        }
+        final ReadCache cache = dao.getReadCache();
+        if (cache != null) {
+            metrics.append("cache.hits ").append(cache.getHitCount()).append('\n')
+                    .append("cache.misses ").append(cache.getMissCount()).append('\n')
+                    .append("cache.evictions ").append(cache.getEvictionCount()).append('\n')
+                    .append("cache.size ").append(cache.getSize()).append('\n');
+        }
+        return Response.ok(metrics.toString());
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        storage.shutdown();
+        clusterCoordinator.shutdown();
+        routing.close();
+        if (purger != null) {
+            purger.shutdownNow();
+            try {
+                // The purge in progress doesn't react to the interrupt and the storage is closed after the service
+                if (!purger.awaitTermination(PURGE_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.log(Level.WARNING, "Purge didn't complete in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void purge() {
+        try {
+            dao.purge();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Exception while purging stale records: ", e);
+        }
+    }
+
     private void entity(@NotNull final Request request, final HttpSession session) throws IOException {
         if (request.getURI().equals("/v0/entity")) {
             session.sendError(Response.BAD_REQUEST, "No specified parameters");
@@ -121,7 +209,20 @@ public class AsyncHttpService extends HttpServer implements Service {
 
         final boolean proxiedF = proxied;
 
-        if (proxied || nodes.getNodes().size() > 1) {
+        if (request.getMethod() == Request.METHOD_PUT && request.getParameter("ttl=") != null) {
+            if (!proxied && routing.size() == 1) {
+                session.sendError(Response.BAD_REQUEST, "TTL is supported by cluster only");
+                return;
+            }
+            try {
+                RequestUtils.parseTtl(request);
+            } catch (IllegalArgumentException e) {
+                session.sendError(Response.BAD_REQUEST, e.getMessage());
+                return;
+            }
+        }
+
+        if (proxied || routing.size() > 1) {
             clusterCoordinator.coordinateRequest(proxiedF, request, session);
         } else {
             final var key = ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
@@ -156,6 +257,16 @@ public class AsyncHttpService extends HttpServer implements Service {
             case "/v0/entities":
                 entities(request, session);
                 break;
+            case ReplicaRpc.UPGRADE_PATH:
+                upgrade(request, session);
+                break;
+            case ReadRepairer.REPAIRS_PATH:
+                repairs(request, session);
+                break;
+            case AntiEntropy.DIGESTS_PATH:
+            case AntiEntropy.RANGES_PATH:
+                antiEntropy(request, session);
+                break;
             default:
                 session.sendError(Response.BAD_REQUEST, "Wrong path");
                 break;
@@ -163,17 +274,21 @@ public class AsyncHttpService extends HttpServer implements Service {
     }
 
     private void executeAsync(@NotNull final HttpSession session, @NotNull final Action action) throws IOException {
-        workerThreads.execute(() -> {
-            try {
-                session.sendResponse(action.act());
-            } catch (IOException e) {
+        try {
+            storage.execute(() -> {
                 try {
-                    session.sendError(Response.INTERNAL_ERROR, e.getMessage());
-                } catch (IOException ex) {
-                    logger.log(Level.SEVERE,"Exception while processing request: ", e);
+                    session.sendResponse(action.act());
+                } catch (IOException e) {
+                    try {
+                        session.sendError(Response.INTERNAL_ERROR, e.getMessage());
+                    } catch (IOException ex) {
+                        logger.log(Level.SEVERE,"Exception while processing request: ", e);
+                    }
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            session.sendError(Response.SERVICE_UNAVAILABLE, "Storage is overloaded");
+        }
     }
 
     @FunctionalInterface
@@ -182,27 +297,178 @@ public class AsyncHttpService extends HttpServer implements Service {
     }
 
     private void entities(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
-        final String start = request.getParameter("start=");
-        if (start == null || start.isEmpty()) {
-            session.sendError(Response.BAD_REQUEST, "No start");
+        switch (request.getMethod()) {
+            case Request.METHOD_GET:
+                range(request, session);
+                return;
+            case Request.METHOD_PUT:
+            case Request.METHOD_POST:
+                batch(request, session);
+                return;
+            default:
+                session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
+                return;
+        }
+    }
+
+    private void batch(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        final byte[] body = request.getBody();
+        if (body == null) {
+            session.sendError(Response.BAD_REQUEST, "No batch");
+            return;
+        }
+        final List<Record> records;
+        final List<ByteBuffer> keys;
+        try {
+            records = request.getMethod() == Request.METHOD_PUT ? BatchCodec.decodeRecords(body) : null;
+            keys = records == null ? BatchCodec.decodeKeys(body) : null;
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (routing.size() > 1) {
+            final RF rf = RF.calculateRF(request.getParameter("replicas"), session, routing.getDefaultRF(),
+                    routing.size());
+            if (rf == null) {
+                return;
+            }
+            if (records == null) {
+                clusterCoordinator.coordinateBatchGet(keys, rf, session);
+            } else {
+                clusterCoordinator.coordinateBatchPut(records, rf, session);
+            }
+        } else if (records == null) {
+            executeAsync(session, () -> getBatchWrapper(keys));
+        } else {
+            executeAsync(session, () -> putBatchWrapper(records));
+        }
+    }
+
+    private void upgrade(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_GET || request.getHeader("PROXY_HEADER") == null) {
+            session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
+            return;
+        }
+        final StreamStorageSession rpcSession = (StreamStorageSession) session;
+        // The peer waits for the response before the first frame, so nothing else is read as HTTP
+        rpcSession.upgrade((id, operation, payload) -> call(rpcSession, id, operation, payload));
+        session.sendResponse(new Response(ReplicaRpc.SWITCHING_PROTOCOLS, Response.EMPTY));
+    }
+
+    private void call(@NotNull final StreamStorageSession session, final long id, final byte operation,
+                      @NotNull final byte[] payload) {
+        try {
+            storage.execute(() -> {
+                try {
+                    session.reply(id, ReplicaRpc.OK, callWrapper(operation, payload));
+                } catch (IOException | IllegalArgumentException e) {
+                    logger.log(Level.WARNING, "Exception while processing replica call: ", e);
+                    session.reply(id, ReplicaRpc.FAILED, Response.EMPTY);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.reply(id, ReplicaRpc.FAILED, Response.EMPTY);
+        }
+    }
+
+    private void repairs(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_PUT || request.getHeader("PROXY_HEADER") == null) {
+            session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
             return;
         }
+        final byte[] body = request.getBody();
+        if (body == null) {
+            session.sendError(Response.BAD_REQUEST, "No batch");
+            return;
+        }
+        final List<Record> records;
+        try {
+            records = BatchCodec.decodeRecords(body);
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        executeAsync(session, () -> repairsWrapper(records));
+    }
 
-        if (request.getMethod() != Request.METHOD_GET) {
+    private void antiEntropy(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        if (request.getMethod() != Request.METHOD_POST || request.getHeader("PROXY_HEADER") == null) {
             session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
             return;
         }
+        final byte[] body = request.getBody();
+        if (body == null) {
+            session.sendError(Response.BAD_REQUEST, "No batch");
+            return;
+        }
+        final AntiEntropy antiEntropy = clusterCoordinator.getAntiEntropy();
+        final boolean digests = AntiEntropy.DIGESTS_PATH.equals(request.getPath());
+        final int peer;
+        final int level;
+        final int[] indices;
+        final ByteBuffer after;
+        try {
+            peer = Integer.parseInt(request.getParameter("peer="));
+            level = digests ? Integer.parseInt(request.getParameter("level=")) : AntiEntropy.leafLevel();
+            indices = BatchCodec.decodeInts(body);
+            antiEntropy.check(peer, level, indices);
+            final byte[] token = RequestUtils.continuation(request);
+            after = token == null ? null : ByteBuffer.wrap(token);
+            if (after != null && (indices.length == 0 || DigestIndex.bucketOf(after) != indices[0])) {
+                throw new IllegalArgumentException("Token is out of the first bucket");
+            }
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        // The digests are only copied under the lock, while the records are read from the storage
+        if (digests) {
+            session.sendResponse(Response.ok(BatchCodec.encodeLongs(antiEntropy.digests(peer, level, indices))));
+        } else {
+            executeAsync(session, () -> antiEntropy.records(peer, indices, after));
+        }
+    }
+
+    private void range(@NotNull final Request request, @NotNull final HttpSession session) throws IOException {
+        final ByteBuffer from;
+        final int limit;
+        final boolean descending;
+        try {
+            from = RequestUtils.rangeStart(request);
+            limit = RequestUtils.parseLimit(request);
+            descending = RequestUtils.isDescending(request);
+        } catch (IllegalArgumentException e) {
+            session.sendError(Response.BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (from == null) {
+            session.sendError(Response.BAD_REQUEST, "No start");
+            return;
+        }
+        final ByteBuffer to = RequestUtils.rangeEnd(request);
 
-        String end = request.getParameter("end=");
-        if (end != null && end.isEmpty()) {
-            end = null;
+        final String formatName = request.getParameter("format=");
+        final StreamStorageSession.Format format;
+        if (formatName == null || "lines".equals(formatName)) {
+            format = StreamStorageSession.Format.LINES;
+        } else if ("frames".equals(formatName)) {
+            format = StreamStorageSession.Format.FRAMES;
+        } else {
+            session.sendError(Response.BAD_REQUEST, "Wrong format");
+            return;
         }
 
+        final StreamStorageSession stream = (StreamStorageSession) session;
         try {
-            final Iterator<Record> records =
-                    dao.range(ByteBuffer.wrap(start.getBytes(StandardCharsets.UTF_8)),
-                            end == null ? null : ByteBuffer.wrap(end.getBytes(StandardCharsets.UTF_8)));
-            ((StreamStorageSession) session).stream(records);
+            if (request.getHeader("PROXY_HEADER") != null) {
+                // The limit is applied after the merge, as the peers don't know which records are live
+                stream.stream(dao.recordRange(from, to, descending), StreamStorageSession.Format.FRAMES);
+            } else if (routing.size() > 1) {
+                clusterCoordinator.coordinateRange(request, from, to, stream, format);
+            } else {
+                final RecordCursor values = dao.recordRange(from, to, descending);
+                stream.stream(limit > 0 ? RecordCursor.limit(values, limit) : values, format);
+            }
         } catch (IOException e) {
             session.sendError(Response.INTERNAL_ERROR, e.getMessage());
         }
@@ -231,6 +497,54 @@ public class AsyncHttpService extends HttpServer implements Service {
         return new Response(Response.CREATED, Response.EMPTY);
     }
 
+    @NotNull
+    private Response putBatchWrapper(final List<Record> records) throws IOException {
+        dao.upsertAll(records);
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    @NotNull
+    private Response getBatchWrapper(final List<ByteBuffer> keys) throws IOException {
+        return new Response(Response.OK, BatchCodec.encodeValues(keys, dao.getAll(keys)));
+    }
+
+    @NotNull
+    private byte[] callWrapper(final byte operation, @NotNull final byte[] payload) throws IOException {
+        switch (operation) {
+            case ReplicaRpc.GET:
+                final TimestampRecord record = dao.getRecordWithTimestamp(ByteBuffer.wrap(payload));
+                return record.isEmpty() ? Response.EMPTY : record.toBytes();
+            case ReplicaRpc.WRITES:
+                final List<Record> writes = BatchCodec.decodeRecords(payload);
+                final List<ByteBuffer> keys = new ArrayList<>(writes.size());
+                final List<TimestampRecord> records = new ArrayList<>(writes.size());
+                for (final Record write : writes) {
+                    keys.add(write.getKey());
+                    records.add(timestampRecord(write));
+                }
+                dao.writeRecordsWithTimestamp(keys, records);
+                final byte[] acks = new byte[keys.size()];
+                Arrays.fill(acks, WriteCoalescer.ACK);
+                return acks;
+            default:
+                throw new IllegalArgumentException("Wrong operation: " + operation);
+        }
+    }
+
+    private Response repairsWrapper(final List<Record> records) throws IOException {
+        for (final Record record : records) {
+            dao.mergeRecordWithTimestamp(record.getKey(), timestampRecord(record));
+        }
+        return new Response(Response.CREATED, Response.EMPTY);
+    }
+
+    @NotNull
+    private static TimestampRecord timestampRecord(@NotNull final Record record) {
+        final byte[] bytes = new byte[record.getValue().remaining()];
+        record.getValue().duplicate().get(bytes);
+        return TimestampRecord.fromBytes(bytes);
+    }
+
     @NotNull
     private Response deleteMethodWrapper(final ByteBuffer key) throws IOException {
         dao.remove(key);
@@ -0,0 +1,171 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary format of the {@code /v0/entities} batches and the replica writes.
+ * Each key or value is encoded as its length (big-endian int) followed by the bytes,
+ * an absent value is encoded as length {@code -1}.
+ * Replica writes are the keys with the encoded records with timestamp.
+ * The indices and the digests of the anti-entropy trees are encoded as plain big-endian ints and longs.
+ */
+final class BatchCodec {
+    private static final int ABSENT = -1;
+
+    private BatchCodec() {
+        // Not instantiatable
+    }
+
+    /**
+     * Decode the sequence of key-value pairs.
+     *
+     * @param body to decode
+     * @return records backed by the body
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<Record> decodeRecords(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<Record> records = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            final ByteBuffer key = nextEntry(buffer);
+            final ByteBuffer value = nextEntry(buffer);
+            records.add(Record.of(key, value));
+        }
+        return records;
+    }
+
+    /**
+     * Decode the sequence of keys.
+     *
+     * @param body to decode
+     * @return keys backed by the body
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static List<ByteBuffer> decodeKeys(@NotNull final byte[] body) {
+        final ByteBuffer buffer = ByteBuffer.wrap(body);
+        final List<ByteBuffer> keys = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            keys.add(nextEntry(buffer));
+        }
+        return keys;
+    }
+
+    /**
+     * Encode the key-value pairs, {@code null} values are encoded as absent.
+     *
+     * @param keys to encode
+     * @param values to encode in the order of keys
+     * @return encoded body
+     */
+    @NotNull
+    static byte[] encodeValues(@NotNull final List<ByteBuffer> keys,
+                               @NotNull final List<ByteBuffer> values) {
+        int size = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            size += Integer.BYTES + keys.get(i).remaining() + Integer.BYTES;
+            if (values.get(i) != null) {
+                size += values.get(i).remaining();
+            }
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < keys.size(); i++) {
+            putEntry(buffer, keys.get(i));
+            putEntry(buffer, values.get(i));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Encode the indices.
+     *
+     * @param indices to encode
+     * @return encoded body
+     */
+    @NotNull
+    static byte[] encodeInts(@NotNull final int[] indices) {
+        final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES * indices.length);
+        buffer.asIntBuffer().put(indices);
+        return buffer.array();
+    }
+
+    /**
+     * Decode the indices encoded by {@link #encodeInts(int[])}.
+     *
+     * @param body to decode
+     * @return indices
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static int[] decodeInts(@NotNull final byte[] body) {
+        if (body.length % Integer.BYTES != 0) {
+            throw new IllegalArgumentException("Truncated batch");
+        }
+        final int[] indices = new int[body.length / Integer.BYTES];
+        ByteBuffer.wrap(body).asIntBuffer().get(indices);
+        return indices;
+    }
+
+    /**
+     * Encode the digests.
+     *
+     * @param digests to encode
+     * @return encoded body
+     */
+    @NotNull
+    static byte[] encodeLongs(@NotNull final long[] digests) {
+        final ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES * digests.length);
+        buffer.asLongBuffer().put(digests);
+        return buffer.array();
+    }
+
+    /**
+     * Decode the digests encoded by {@link #encodeLongs(long[])}.
+     *
+     * @param body to decode
+     * @return digests
+     * @throws IllegalArgumentException if the body is malformed
+     */
+    @NotNull
+    static long[] decodeLongs(@NotNull final byte[] body) {
+        if (body.length % Long.BYTES != 0) {
+            throw new IllegalArgumentException("Truncated batch");
+        }
+        final long[] digests = new long[body.length / Long.BYTES];
+        ByteBuffer.wrap(body).asLongBuffer().get(digests);
+        return digests;
+    }
+
+    @NotNull
+    private static ByteBuffer nextEntry(@NotNull final ByteBuffer buffer) {
+        try {
+            final int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Wrong entry length: " + length);
+            }
+            final ByteBuffer entry = buffer.slice();
+            entry.limit(length);
+            buffer.position(buffer.position() + length);
+            return entry;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch", e);
+        }
+    }
+
+    private static void putEntry(@NotNull final ByteBuffer buffer, @Nullable final ByteBuffer entry) {
+        if (entry == null) {
+            buffer.putInt(ABSENT);
+        } else {
+            buffer.putInt(entry.remaining());
+            buffer.put(entry.duplicate());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ru.mail.polis.service.hljavacourse;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * State of the replica replies of the {@code /v0/entities} batch in the cluster.
+ * Every entry is decided on its own like the single request in {@link ReplicaReplies}:
+ * as soon as enough replicas acked it or all of them answered.
+ * The response is decided once every entry is.
+ */
+final class BatchReplies {
+    static final byte ACKED = 1;
+    static final byte FAILED = 0;
+
+    private final int method;
+    private final List<ByteBuffer> keys;
+    private final int acks;
+    private final int from;
+    private final int[] successes;
+    private final int[] completed;
+    private final TimestampRecord[] latest;
+    private int undecided;
+    private boolean failed;
+
+    /**
+     * Create the replies state.
+     *
+     * @param method to specify the request method, {@code PUT} for the writes or {@code POST} for the reads
+     * @param keys to specify the keys of the entries
+     * @param acks to specify the amount of acks required for every entry, capped by {@code from}
+     * @param from to specify the amount of replicas asked for every entry
+     */
+    BatchReplies(final int method, @NotNull final List<ByteBuffer> keys, final int acks, final int from) {
+        this.method = method;
+        this.keys = keys;
+        this.acks = Math.min(acks, from);
+        this.from = from;
+        this.successes = new int[keys.size()];
+        this.completed = new int[keys.size()];
+        this.latest = new TimestampRecord[keys.size()];
+        this.undecided = keys.size();
+    }
+
+    /**
+     * Account the ack of the replica.
+     *
+     * @param entry to specify the index of the entry
+     * @param record to specify the record read by the replica, {@code null} for a write
+     * @return response to send or {@code null} if it is not decided yet or already sent
+     */
+    @Nullable
+    synchronized Response onReply(final int entry, @Nullable final TimestampRecord record) throws IOException {
+        if (record != null) {
+            latest[entry] = TimestampRecord.latest(latest[entry], record);
+        }
+        return account(entry, true);
+    }
+
+    /**
+     * Account the failed replica request.
+     *
+     * @param entry to specify the index of the entry
+     * @return response to send or {@code null} if it is not decided yet or already sent
+     */
+    @Nullable
+    synchronized Response onFailure(final int entry) throws IOException {
+        return account(entry, false);
+    }
+
+    @Nullable
+    private Response account(final int entry, final boolean success) throws IOException {
+        final boolean decided = isDecided(entry);
+        completed[entry]++;
+        if (success) {
+            successes[entry]++;
+        }
+        if (decided || !isDecided(entry)) {
+            return null;
+        }
+        if (successes[entry] < acks) {
+            failed = true;
+        }
+        undecided--;
+        return undecided == 0 ? decide() : null;
+    }
+
+    private boolean isDecided(final int entry) {
+        return successes[entry] >= acks || completed[entry] >= from;
+    }
+
+    @NotNull
+    private Response decide() throws IOException {
+        if (method == Request.METHOD_PUT) {
+            final byte[] statuses = new byte[keys.size()];
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = successes[i] >= acks ? ACKED : FAILED;
+            }
+            return new Response(failed ? Response.GATEWAY_TIMEOUT : Response.CREATED, statuses);
+        }
+        if (failed) {
+            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+        }
+        final long now = System.currentTimeMillis();
+        final List<ByteBuffer> values = new ArrayList<>(keys.size());
+        for (final TimestampRecord record : latest) {
+            values.add(record != null && record.isValue() && !record.isExpired(now) ? record.getValue() : null);
+        }
+        return new Response(Response.OK, BatchCodec.encodeValues(keys, values));
+    }
+}
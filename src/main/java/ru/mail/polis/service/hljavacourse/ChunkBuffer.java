@@ -0,0 +1,133 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reusable buffer packing the entries into HTTP chunks, so that many records go to the socket with one write.
+ * The arrays are pooled between the streams, the array written to the session must not be released
+ * or refilled while the session still queues it.
+ */
+final class ChunkBuffer {
+    static final int CAPACITY = 64 * 1024;
+
+    private static final int POOL_SIZE = 64;
+    // The chunk size is padded with zeros to the fixed width, so the header is reserved before the payload
+    private static final int SIZE_DIGITS = 8;
+    private static final int HEADER = SIZE_DIGITS + 2;
+    private static final int TRAILER = 2;
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+    private static final BlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private byte[] array;
+    private int position;
+    private int chunk = -1;
+
+    private ChunkBuffer(@NotNull final byte[] array) {
+        this.array = array;
+    }
+
+    /**
+     * Take the buffer from the pool.
+     *
+     * @return empty buffer of {@link #CAPACITY} bytes at least
+     */
+    @NotNull
+    static ChunkBuffer acquire() {
+        final byte[] array = POOL.poll();
+        return new ChunkBuffer(array == null ? new byte[CAPACITY] : array);
+    }
+
+    /**
+     * Return the array to the pool, the buffer can't be used after that.
+     */
+    void release() {
+        // Arrays grown for the large entries are left to GC
+        if (array.length == CAPACITY) {
+            POOL.offer(array);
+        }
+        array = null;
+    }
+
+    /**
+     * Reserve the room for the entry.
+     * The empty buffer grows to hold the entry larger than the capacity.
+     *
+     * @param length to specify the entry length
+     * @param separate to put the entry into its own chunk instead of the current one
+     * @return {@code false} if the buffer is full and has to be flushed first
+     */
+    boolean begin(final int length, final boolean separate) {
+        final boolean append = chunk >= 0 && !separate;
+        final int needed = length + (append ? 0 : HEADER + TRAILER) + (chunk >= 0 ? TRAILER : 0);
+        if (position + needed > array.length) {
+            if (position > 0) {
+                return false;
+            }
+            array = new byte[needed];
+        }
+        if (!append) {
+            if (chunk >= 0) {
+                closeChunk();
+            }
+            chunk = position;
+            position += HEADER;
+        }
+        return true;
+    }
+
+    void put(final byte b) {
+        array[position++] = b;
+    }
+
+    void put(@NotNull final byte[] src, final int offset, final int length) {
+        System.arraycopy(src, offset, array, position, length);
+        position += length;
+    }
+
+    void putInt(final int value) {
+        array[position++] = (byte) (value >>> 24);
+        array[position++] = (byte) (value >>> 16);
+        array[position++] = (byte) (value >>> 8);
+        array[position++] = (byte) value;
+    }
+
+    /**
+     * Complete the last chunk.
+     *
+     * @return length of the chunks from the beginning of {@link #array()}
+     */
+    int flip() {
+        if (chunk >= 0) {
+            closeChunk();
+        }
+        return position;
+    }
+
+    @NotNull
+    byte[] array() {
+        return array;
+    }
+
+    void clear() {
+        position = 0;
+        chunk = -1;
+    }
+
+    private void closeChunk() {
+        int size = position - chunk - HEADER;
+        for (int i = chunk + SIZE_DIGITS - 1; i >= chunk; i--) {
+            array[i] = HEX_DIGITS[size & 0xF];
+            size >>>= 4;
+        }
+        array[chunk + SIZE_DIGITS] = '\r';
+        array[chunk + SIZE_DIGITS + 1] = '\n';
+        array[position++] = '\r';
+        array[position++] = '\n';
+        chunk = -1;
+    }
+}
@@ -0,0 +1,150 @@
+package ru.mail.polis.service.hljavacourse;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Consistent hashing ring with virtual nodes.
+ * Adding or removing a node remaps only the keys of its own ring segments.
+ */
+public final class ConsistentHashTopology implements Topology<String> {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String me;
+    private final List<String> nodes;
+    private final Set<String> all;
+    private final long[] tokens;
+    private final int[] owners;
+
+    /**
+     * Create the ring.
+     *
+     * @param nodes to specify all the cluster nodes including this one
+     * @param me to specify this node
+     * @param virtualNodes to specify the amount of ring tokens per node
+     */
+    public ConsistentHashTopology(@NotNull final Set<String> nodes, @NotNull final String me,
+                                  final int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("Wrong amount of virtual nodes: " + virtualNodes);
+        }
+        if (!nodes.contains(me)) {
+            throw new IllegalArgumentException("Unknown node: " + me);
+        }
+        this.me = me;
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+        this.all = Collections.unmodifiableSet(new LinkedHashSet<>(this.nodes));
+
+        final int size = this.nodes.size() * virtualNodes;
+        final long[][] ring = new long[size][];
+        int i = 0;
+        for (int node = 0; node < this.nodes.size(); node++) {
+            for (int vnode = 0; vnode < virtualNodes; vnode++) {
+                final String token = this.nodes.get(node) + '#' + vnode;
+                ring[i++] = new long[]{HASH.hashString(token, StandardCharsets.UTF_8).asLong(), node};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        this.tokens = new long[size];
+        this.owners = new int[size];
+        for (i = 0; i < size; i++) {
+            tokens[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    @NotNull
+    @Override
+    public String primaryFor(@NotNull final ByteBuffer key) {
+        return nodes.get(owners[tokenFor(key)]);
+    }
+
+    @Override
+    public boolean isMe(@NotNull final String node) {
+        return me.equals(node);
+    }
+
+    @NotNull
+    @Override
+    public String getMe() {
+        return me;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> all() {
+        return all;
+    }
+
+    @NotNull
+    @Override
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Get the distinct nodes following the key clockwise on the ring.
+     *
+     * @param count the amount of replicas
+     * @param id key id
+     * @return nodes to store the replicas, the primary one goes first
+     */
+    @NotNull
+    @Override
+    public String[] replicas(final int count, @NotNull final ByteBuffer id) {
+        final int[] indices = new int[Math.min(count, nodes.size())];
+        final int found = replicas(count, id, indices);
+        final String[] result = new String[found];
+        for (int i = 0; i < found; i++) {
+            result[i] = nodes.get(indices[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public int replicas(final int count, @NotNull final ByteBuffer id, @NotNull final int[] indices) {
+        final int replicas = Math.min(Math.min(count, nodes.size()), indices.length);
+        int found = 0;
+        int token = tokenFor(id);
+        while (found < replicas) {
+            final int owner = owners[token];
+            if (!contains(indices, found, owner)) {
+                indices[found++] = owner;
+            }
+            token = token + 1 == tokens.length ? 0 : token + 1;
+        }
+        return found;
+    }
+
+    private static boolean contains(@NotNull final int[] indices, final int size, final int index) {
+        for (int i = 0; i < size; i++) {
+            if (indices[i] == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first token not less than the key hash, wrapping around the ring.
+     */
+    private int tokenFor(@NotNull final ByteBuffer key) {
+        final long hash = HASH.hashBytes(key.duplicate()).asLong();
+        int index = Arrays.binarySearch(tokens, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == tokens.length ? 0 : index;
+    }
+}
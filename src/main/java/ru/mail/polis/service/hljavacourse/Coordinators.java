@@ -1,186 +1,494 @@
 package ru.mail.polis.service.hljavacourse;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import one.nio.http.Request;
 import one.nio.http.Response;
 import one.nio.http.HttpSession;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.Record;
 import ru.mail.polis.dao.DAO;
+import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.MergedRecordCursor;
+import ru.mail.polis.dao.RecordCursor;
 import ru.mail.polis.dao.TimestampRecord;
 
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Coordinators {
+    private static final int COALESCE_MAX_WRITES = 64;
+    private static final int COALESCE_MAX_BYTES = 256 * 1024;
+    private static final long COALESCE_WINDOW_MICROS = 1000;
+    private static final int RANGE_THREADS = 4;
+    private static final long RANGE_STOP_TIMEOUT_SECONDS = 1;
+    private static final int REPAIRS_PER_SECOND = 1000;
+    private static final int HINTS_PER_SECOND = 5000;
+    private static final long ANTI_ENTROPY_PERIOD_MILLIS = 10_000;
+
     @NotNull
-    private final ClusterNodes nodes;
-    private final Map<String, HttpClient> clusterClients;
+    private final RoutingTable routing;
+    private final ReplicaChannel[] channels;
+    private final WriteCoalescer[] writeCoalescers;
     private final RequestUtils utils;
+    private final Executor storage;
+    @NotNull
+    private final DAORocksDB dao;
+    private final ThreadPoolExecutor ranges;
+    private final ReadRepairer repairer;
+    private final HintedHandoff handoff;
+    private final AntiEntropy antiEntropy;
 
     private static final Logger logger = Logger.getLogger(Coordinators.class.getName());
 
     /**
      * Create the cluster coordinator instance.
      *
-     * @param nodes to specify cluster nodes
-     * @param clusterClients to specify the HttpClients of the cluster
+     * @param routing to specify the routing table of the cluster
      * @param dao to specify current DAO
+     * @param storage to execute the local storage requests
+     * @throws IOException if the hint store can't be opened
      */
-    public Coordinators(@NotNull final ClusterNodes nodes, final Map<String, HttpClient> clusterClients,
-                        @NotNull final DAO dao) {
-        this.nodes = nodes;
-        this.clusterClients = clusterClients;
-        this.utils = new RequestUtils(false, dao);
+    Coordinators(@NotNull final RoutingTable routing, @NotNull final DAO dao,
+                 @NotNull final Executor storage) throws IOException {
+        this.routing = routing;
+        this.utils = new RequestUtils(dao, storage);
+        this.storage = storage;
+        this.dao = (DAORocksDB) dao;
+        this.repairer = new ReadRepairer(routing, this.dao, storage, REPAIRS_PER_SECOND);
+        this.handoff = new HintedHandoff(routing, this.dao.getHints(), HINTS_PER_SECOND);
+        this.antiEntropy = new AntiEntropy(routing, this.dao, routing.getDefaultRF().getFrom(),
+                ANTI_ENTROPY_PERIOD_MILLIS);
+        // Every range holds a thread while it streams, the excess ones are rejected
+        this.ranges = new ThreadPoolExecutor(0, RANGE_THREADS, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("range-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("coalescer").setDaemon(true).build());
+        this.channels = new ReplicaChannel[routing.size()];
+        this.writeCoalescers = new WriteCoalescer[routing.size()];
+        for (int node = 0; node < routing.size(); node++) {
+            if (!routing.isLocal(node)) {
+                channels[node] = new ReplicaChannel(routing.node(node));
+                writeCoalescers[node] = new WriteCoalescer(channels[node], scheduler,
+                        COALESCE_MAX_WRITES, COALESCE_MAX_BYTES, COALESCE_WINDOW_MICROS);
+            }
+        }
     }
 
     /**
      * Coordinate the delete among all clusters.
      *
-     * @param replicaNodes to define the nodes where to create replicas
+     * @param replicaNodes to define the indices of the nodes where to create replicas
      * @param rqst to define request
-     * @param acks to specify the amount of acks needed
+     * @param replies to specify the state of the replica replies
      * @param session to specify if the session for output
      */
-    private void coordinateDelete(final String[] replicaNodes, final Request rqst,
-                                     final int acks, final HttpSession session) throws IOException {
-        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.length);
-        for (final String node : replicaNodes) {
-            if (node.equals(nodes.getId())) futures.add(utils.asyncExecuteLocalRequest(rqst));
+    private void coordinateDelete(final RoutingTable.Replicas replicaNodes, final Request rqst,
+                                  final ReplicaReplies replies, final HttpSession session) throws IOException {
+        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.size());
+        final TimestampRecord tombstone = TimestampRecord.tombstone(TimestampRecord.now());
+        for (int i = 0; i < replicaNodes.size(); i++) {
+            final int node = replicaNodes.get(i);
+            final ByteBuffer key = RequestUtils.parseKey(rqst);
+            if (routing.isLocal(node)) futures.add(utils.asyncWriteLocalRecord(key, tombstone));
             else {
-                final HttpRequest request = RequestUtils.requestBase(node, rqst).DELETE().build();
-                final CompletableFuture<HttpResponse<byte[]>> futureResp = clusterClients.get(node)
-                        .sendAsync(request, BodyHandlers.ofByteArray());
-                futures.add(futureResp);
+                final CompletableFuture<HttpResponse<byte[]>> future = writeCoalescers[node].write(key, tombstone);
+                handoff.hintOnFailure(future, node, key, tombstone);
+                futures.add(future);
             }
         }
         if (futures.isEmpty()) {
             session.sendResponse(new Response(Response.ACCEPTED, Response.EMPTY));
             return;
         }
-        final AtomicInteger asks = new AtomicInteger(0);
-        var all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
-        all = all.thenAccept((response) -> {
-            try {
-                session.sendResponse(utils.postProcessDeleteFutures(asks, acks, futures));
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Exception while processing delete: ", e);
-            }
-        });
-        all.exceptionally(except -> {
-            try {
-                session.sendResponse(utils.postProcessDeleteFutures(asks, acks, futures));
-            } catch (IOException e) {
-                logger.log(Level.INFO, "Exception while processing excepted delete: ", e);
-            }
-            return null;
-        });
+        respondOnQuorum(futures, session, replies);
     }
 
     /**
      * Coordinate the put among all clusters.
      *
-     * @param replicaNodes to define the nodes where to create replicas
+     * @param replicaNodes to define the indices of the nodes where to create replicas
      * @param rqst to define request
-     * @param acks to specify the amount of acks needed
+     * @param replies to specify the state of the replica replies
      * @param session to specify if the session for output
      */
-    private void coordinatePut(final String[] replicaNodes, final Request rqst,
-                                  final int acks, final HttpSession session) throws IOException {
-        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.length);
-        for (final String node : replicaNodes) {
-            if (node.equals(nodes.getId())) futures.add(utils.asyncExecuteLocalRequest(rqst));
+    private void coordinatePut(final RoutingTable.Replicas replicaNodes, final Request rqst,
+                               final ReplicaReplies replies, final HttpSession session) throws IOException {
+        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.size());
+        final TimestampRecord record = TimestampRecord.fromValue(ByteBuffer.wrap(rqst.getBody()),
+                TimestampRecord.now(), RequestUtils.expiresAt(rqst));
+        for (int i = 0; i < replicaNodes.size(); i++) {
+            final int node = replicaNodes.get(i);
+            final ByteBuffer key = RequestUtils.parseKey(rqst);
+            if (routing.isLocal(node)) futures.add(utils.asyncWriteLocalRecord(key, record));
             else {
-                final HttpRequest request = RequestUtils.requestBase(node, rqst)
-                        .PUT(HttpRequest.BodyPublishers.ofByteArray(rqst.getBody()))
-                        .build();
-                final CompletableFuture<HttpResponse<byte[]>> futureResp = clusterClients.get(node)
-                        .sendAsync(request, BodyHandlers.ofByteArray());
-                futures.add(futureResp);
+                final CompletableFuture<HttpResponse<byte[]>> future = writeCoalescers[node].write(key, record);
+                handoff.hintOnFailure(future, node, key, record);
+                futures.add(future);
             }
         }
         if (futures.isEmpty()) {
             session.sendResponse(new Response(Response.CREATED, Response.EMPTY));
             return;
         }
-        final AtomicInteger asks = new AtomicInteger(0);
-        var all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
-        all = all.thenAccept((response) -> {
-            try {
-                session.sendResponse(utils.postProcessPutFutures(asks, acks, futures));
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Exception while processing put: ", e);
-            }
-        });
-        all.exceptionally(except -> {
-            try {
-                session.sendResponse(utils.postProcessPutFutures(asks, acks, futures));
-            } catch (IOException e) {
-                logger.log(Level.INFO, "Exception while processing excepted put: ", e);
-            }
-            return null;
-        });
+        respondOnQuorum(futures, session, replies);
     }
 
     /**
      * Coordinate the get among all clusters.
      *
-     * @param replicaNodes to define the nodes where to create replicas
+     * @param replicaNodes to define the indices of the nodes where to create replicas
      * @param rqst to define request
-     * @param acks to specify the amount of acks needed
+     * @param replies to specify the state of the replica replies
      * @param session to specify if the session for output
      */
-    private void coordinateGet(final String[] replicaNodes, final Request rqst,
-                              final int acks, final HttpSession session) throws IOException {
-        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.length);
-        final List<TimestampRecord> responses = new ArrayList<>();
-        for (final String node : replicaNodes) {
-            if (node.equals(nodes.getId())) {
+    private void coordinateGet(final RoutingTable.Replicas replicaNodes, final Request rqst,
+                               final ReplicaReplies replies, final HttpSession session) throws IOException {
+        final List<CompletableFuture<HttpResponse<byte[]>>> futures = new ArrayList<>(replicaNodes.size());
+        for (int i = 0; i < replicaNodes.size(); i++) {
+            final int node = replicaNodes.get(i);
+            if (routing.isLocal(node)) {
                 futures.add(utils.asyncExecuteLocalRequest(rqst));
             } else {
-                final HttpRequest request = RequestUtils.requestBase(node, rqst).GET().build();
-                final CompletableFuture<HttpResponse<byte[]>> futureResp = clusterClients.get(node)
-                        .sendAsync(request, BodyHandlers.ofByteArray());
-                futures.add(futureResp);
+                final byte[] key = rqst.getParameter("id=").getBytes(StandardCharsets.UTF_8);
+                futures.add(channels[node].call(ReplicaRpc.GET, key)
+                        .thenApply(record -> new HttpResponseClusterImpl().setStatusCode(200).setBody(record)));
             }
         }
         if (futures.isEmpty()) {
-            session.sendResponse(utils.processResponses(replicaNodes, responses));
+            session.sendResponse(new Response(Response.NOT_FOUND, Response.EMPTY));
             return;
         }
-        final AtomicInteger asks = new AtomicInteger(0);
-        var all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
-        all = all.thenAccept((response) -> {
-            try {
-                session.sendResponse(utils.postProcessGetFutures(responses, asks, futures, replicaNodes, acks));
-            } catch (IOException e) {
-                logger.log(Level.SEVERE, "Exception while processing get: ", e);
+        respondOnQuorum(futures, session, replies);
+    }
+
+    /**
+     * Send the response as soon as it is decided: either enough replicas acked or all of them answered.
+     * The replies arriving after that are consumed in background and the last one repairs the stale replicas.
+     *
+     * @param futures to specify the replica requests
+     * @param session to specify the session for output
+     * @param replies to specify the state of the replica replies
+     */
+    private void respondOnQuorum(final List<CompletableFuture<HttpResponse<byte[]>>> futures,
+                                 final HttpSession session, final ReplicaReplies replies) {
+        for (int i = 0; i < futures.size(); i++) {
+            final int replica = i;
+            futures.get(i).whenComplete((reply, exception) -> {
+                try {
+                    final Response response = exception == null
+                            ? replies.onReply(replica, reply)
+                            : replies.onFailure();
+                    if (response != null) {
+                        session.sendResponse(response);
+                    }
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Exception while processing replica replies: ", e);
+                }
+                replies.repairIfCompleted();
+            });
+        }
+    }
+
+    /**
+     * Coordinate the batch of writes: every entry is written to its replicas with the record of the coordinator,
+     * the local entries go to the storage in one batch and the remote ones through the write coalescers.
+     *
+     * @param entries to specify the keys and the values
+     * @param rf to specify the replication factor of every entry
+     * @param session to specify the session for output
+     */
+    void coordinateBatchPut(@NotNull final List<Record> entries, @NotNull final RF rf,
+                            @NotNull final HttpSession session) {
+        if (entries.isEmpty()) {
+            respond(session, () -> new Response(Response.CREATED, Response.EMPTY));
+            return;
+        }
+        final List<ByteBuffer> keys = new ArrayList<>(entries.size());
+        final List<TimestampRecord> records = new ArrayList<>(entries.size());
+        for (final Record entry : entries) {
+            keys.add(entry.getKey());
+            records.add(TimestampRecord.fromValue(entry.getValue(), TimestampRecord.now()));
+        }
+        final BatchReplies replies = new BatchReplies(Request.METHOD_PUT, keys, rf.getAck(), rf.getFrom());
+        final List<Integer> local = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            final int entry = i;
+            final RoutingTable.Replicas replicaNodes = routing.replicas(rf.getFrom(), keys.get(i));
+            for (int j = 0; j < replicaNodes.size(); j++) {
+                final int node = replicaNodes.get(j);
+                if (routing.isLocal(node)) {
+                    local.add(entry);
+                    continue;
+                }
+                final CompletableFuture<HttpResponse<byte[]>> future =
+                        writeCoalescers[node].write(keys.get(i), records.get(i));
+                handoff.hintOnFailure(future, node, keys.get(i), records.get(i));
+                future.whenComplete((reply, exception) -> respond(session,
+                        () -> exception == null && reply.statusCode() == 201
+                                ? replies.onReply(entry, null)
+                                : replies.onFailure(entry)));
+            }
+        }
+        if (local.isEmpty()) {
+            return;
+        }
+        executeLocal(local, session, replies, () -> {
+            final List<ByteBuffer> localKeys = new ArrayList<>(local.size());
+            final List<TimestampRecord> localRecords = new ArrayList<>(local.size());
+            for (final int entry : local) {
+                localKeys.add(keys.get(entry));
+                localRecords.add(records.get(entry));
+            }
+            dao.writeRecordsWithTimestamp(localKeys, localRecords);
+            for (final int entry : local) {
+                respond(session, () -> replies.onReply(entry, null));
             }
         });
-        all.exceptionally(except -> {
-            try {
-                if (futures.size() == 1) {
-                    session.sendError(Response.GATEWAY_TIMEOUT, "Exception while processing get!");
-                } else {
-                    session.sendResponse(utils.postProcessGetFutures(responses, asks, futures, replicaNodes, acks));
+    }
+
+    /**
+     * Coordinate the batch of reads: every entry is read from its replicas and the latest record wins,
+     * the local entries are read by one storage task and the remote ones by the pipelined replica calls.
+     *
+     * @param keys to specify the keys
+     * @param rf to specify the replication factor of every entry
+     * @param session to specify the session for output
+     */
+    void coordinateBatchGet(@NotNull final List<ByteBuffer> keys, @NotNull final RF rf,
+                            @NotNull final HttpSession session) {
+        if (keys.isEmpty()) {
+            respond(session, () -> Response.ok(Response.EMPTY));
+            return;
+        }
+        final BatchReplies replies = new BatchReplies(Request.METHOD_POST, keys, rf.getAck(), rf.getFrom());
+        final List<Integer> local = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            final int entry = i;
+            final RoutingTable.Replicas replicaNodes = routing.replicas(rf.getFrom(), keys.get(i));
+            for (int j = 0; j < replicaNodes.size(); j++) {
+                final int node = replicaNodes.get(j);
+                if (routing.isLocal(node)) {
+                    local.add(entry);
+                    continue;
+                }
+                final byte[] key = new byte[keys.get(i).remaining()];
+                keys.get(i).duplicate().get(key);
+                channels[node].call(ReplicaRpc.GET, key).whenComplete((record, exception) -> respond(session,
+                        () -> exception == null
+                                ? replies.onReply(entry, TimestampRecord.fromBytes(record.length == 0 ? null : record))
+                                : replies.onFailure(entry)));
+            }
+        }
+        if (local.isEmpty()) {
+            return;
+        }
+        executeLocal(local, session, replies, () -> {
+            for (final int entry : local) {
+                final TimestampRecord record;
+                try {
+                    record = dao.getRecordWithTimestamp(keys.get(entry));
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Exception while reading local entry: ", e);
+                    respond(session, () -> replies.onFailure(entry));
+                    continue;
                 }
-            } catch (IOException e) {
-                logger.log(Level.INFO, "Exception while processing excepted get: ", e);
+                respond(session, () -> replies.onReply(entry, record));
             }
-            return null;
         });
     }
 
+    private void executeLocal(@NotNull final List<Integer> local, @NotNull final HttpSession session,
+                              @NotNull final BatchReplies replies, @NotNull final LocalBatch batch) {
+        try {
+            storage.execute(() -> {
+                try {
+                    batch.run();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Exception while processing local batch: ", e);
+                    for (final int entry : local) {
+                        respond(session, () -> replies.onFailure(entry));
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            for (final int entry : local) {
+                respond(session, () -> replies.onFailure(entry));
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface LocalBatch {
+        void run() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface BatchReply {
+        @Nullable
+        Response account() throws IOException;
+    }
+
+    private static void respond(@NotNull final HttpSession session, @NotNull final BatchReply reply) {
+        try {
+            final Response response = reply.account();
+            if (response != null) {
+                session.sendResponse(response);
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Exception while processing batch replies: ", e);
+        }
+    }
+
+    /**
+     * Coordinate the range among all the nodes.
+     * The encoded records of every node are merged by key and timestamp and streamed to the client,
+     * the range fails if the nodes answered are too few to hold the quorum of every key.
+     *
+     * @param request to define request
+     * @param from to specify the first key (inclusive)
+     * @param to to specify the last key (exclusive), {@code null} for no bound
+     * @param session to specify the session where to stream the records
+     * @param format to specify the encoding of the records for the client
+     */
+    void coordinateRange(@NotNull final Request request, @NotNull final ByteBuffer from,
+                         @Nullable final ByteBuffer to, @NotNull final StreamStorageSession session,
+                         @NotNull final StreamStorageSession.Format format) throws IOException {
+        try {
+            ranges.execute(() -> {
+                try {
+                    streamRange(request, from, to, session, format);
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Exception while streaming range: ", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            session.sendError(Response.SERVICE_UNAVAILABLE, "Too many ranges");
+        }
+    }
+
+    private void streamRange(@NotNull final Request request, @NotNull final ByteBuffer from,
+                             @Nullable final ByteBuffer to, @NotNull final StreamStorageSession session,
+                             @NotNull final StreamStorageSession.Format format) throws IOException {
+        final boolean descending = RequestUtils.isDescending(request);
+        final List<CompletableFuture<HttpResponse<InputStream>>> remotes = new ArrayList<>(routing.size());
+        final List<RecordCursor> sources = new ArrayList<>(routing.size());
+        for (int node = 0; node < routing.size(); node++) {
+            if (routing.isLocal(node)) {
+                sources.add(dao.recordRange(from, to, descending));
+            } else {
+                final HttpRequest rangeRequest = RequestUtils.requestBase(routing.node(node), request)
+                        .GET().build();
+                remotes.add(routing.client(node).sendAsync(rangeRequest, BodyHandlers.ofInputStream()));
+            }
+        }
+        int failed = 0;
+        for (final CompletableFuture<HttpResponse<InputStream>> remote : remotes) {
+            final RecordCursor cursor = openRemote(remote);
+            if (cursor == null) {
+                failed++;
+            } else {
+                sources.add(cursor);
+            }
+        }
+        final int limit = RequestUtils.parseLimit(request);
+        final RecordCursor all = new MergedRecordCursor(sources, System.currentTimeMillis(), descending);
+        final RecordCursor merged = limit > 0 ? RecordCursor.limit(all, limit) : all;
+        final RF rf = routing.getDefaultRF();
+        if (failed > rf.getFrom() - rf.getAck()) {
+            merged.close();
+            session.sendError(Response.GATEWAY_TIMEOUT, "Not enough replicas");
+            return;
+        }
+        try {
+            session.produce(merged, format);
+        } catch (IOException e) {
+            session.sendError(Response.INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    @Nullable
+    private static RecordCursor openRemote(@NotNull final CompletableFuture<HttpResponse<InputStream>> remote)
+            throws IOException {
+        try {
+            final HttpResponse<InputStream> response = remote.get();
+            if (response.statusCode() == 200) {
+                return new RemoteRangeCursor(response.body());
+            }
+            response.body().close();
+        } catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Range request failed: ", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * Get the read repairer of the coordinated reads.
+     *
+     * @return read repairer
+     */
+    ReadRepairer getRepairer() {
+        return repairer;
+    }
+
+    /**
+     * Get the hinted handoff of the writes missed by the replicas.
+     *
+     * @return hinted handoff
+     */
+    HintedHandoff getHandoff() {
+        return handoff;
+    }
+
+    /**
+     * Get the anti-entropy between the replicas.
+     *
+     * @return anti-entropy
+     */
+    AntiEntropy getAntiEntropy() {
+        return antiEntropy;
+    }
+
+    void shutdown() {
+        for (final ReplicaChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        ranges.shutdownNow();
+        try {
+            // The streams read the storage cursors, which must be closed before the storage is
+            if (!ranges.awaitTermination(RANGE_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Range streams didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        handoff.shutdown();
+        antiEntropy.shutdown();
+    }
+
     /**
      * Coordinate the request among all clusters.
      *
@@ -192,21 +500,31 @@ public class Coordinators {
                                   final HttpSession session) throws IOException {
         final String id = request.getParameter("id=");
         final String replicas = request.getParameter("replicas");
-        final RF rf = RF.calculateRF(replicas, session,
-                new RF(nodes.getNodes().size() / 2 + 1, nodes.getNodes().size()), nodes.getNodes().size());
+        final RF rf = RF.calculateRF(replicas, session, routing.getDefaultRF(), routing.size());
+        if (rf == null) {
+            return;
+        }
         final var key = ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
-        final String[] replicaClusters = proxied ? new String[]{nodes.getId()} : nodes.replicas(rf.getFrom(), key);
-        this.utils.setProxied(proxied);
+        final RoutingTable.Replicas replicaClusters = proxied ? routing.local() : routing.replicas(rf.getFrom(), key);
+        final ReplicaReplies replies = new ReplicaReplies(request.getMethod(), rf.getAck(),
+                replicaClusters.size(), proxied);
+        if (request.getMethod() == Request.METHOD_GET && !proxied && replicaClusters.size() > 1) {
+            final int[] nodes = new int[replicaClusters.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = replicaClusters.get(i);
+            }
+            replies.repairWith(repairer, key, nodes);
+        }
         try {
             switch (request.getMethod()) {
                 case Request.METHOD_GET:
-                    coordinateGet(replicaClusters, request, rf.getAck(), session);
+                    coordinateGet(replicaClusters, request, replies, session);
                     return;
                 case Request.METHOD_PUT:
-                    coordinatePut(replicaClusters, request, rf.getAck(), session);
+                    coordinatePut(replicaClusters, request, replies, session);
                     return;
                 case Request.METHOD_DELETE:
-                    coordinateDelete(replicaClusters, request, rf.getAck(), session);
+                    coordinateDelete(replicaClusters, request, replies, session);
                     return;
                 default:
                     session.sendError(Response.METHOD_NOT_ALLOWED, "Wrong method");
@@ -0,0 +1,205 @@
+package ru.mail.polis.service.hljavacourse;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.HintStore;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the writes missed by the unavailable replicas in the {@link HintStore} and hands them off
+ * once the replica answers the status request again.
+ * The hints are replayed as repairs, so that the write keeps its timestamp and never wins over the later one.
+ * The hints are stored on their own bounded executor, so neither the replay nor the storage I/O delay them,
+ * and the ones over the queue are dropped, as the replica catches up with anti-entropy anyway.
+ */
+final class HintedHandoff {
+    private static final Logger logger = Logger.getLogger(HintedHandoff.class.getName());
+    private static final String STATUS_PATH = "/v0/status";
+    private static final long TICK_MILLIS = 1000;
+    private static final int BATCH_SIZE = 64;
+    private static final int MAX_PENDING_HINTS = 4096;
+
+    @NotNull
+    private final RoutingTable routing;
+    @NotNull
+    private final HintStore hints;
+    private final int maxPerSecond;
+    private final ScheduledExecutorService executor;
+    private final ThreadPoolExecutor writer;
+
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Create the hinted handoff and start replaying the stored hints.
+     *
+     * @param routing to specify the routing table of the cluster
+     * @param hints to keep the hints
+     * @param maxPerSecond to specify the rate of the replayed hints
+     */
+    HintedHandoff(@NotNull final RoutingTable routing, @NotNull final HintStore hints, final int maxPerSecond) {
+        this.routing = routing;
+        this.hints = hints;
+        this.maxPerSecond = maxPerSecond;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("hints").setDaemon(true).build());
+        executor.scheduleWithFixedDelay(this::replay, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_HINTS),
+                new ThreadFactoryBuilder().setNameFormat("hints-writer").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Store the hint if the replica fails to ack the write.
+     *
+     * @param future to specify the write request to the replica
+     * @param node to specify the index of the replica node
+     * @param key to specify the key written
+     * @param record to specify the record written
+     */
+    void hintOnFailure(@NotNull final CompletableFuture<HttpResponse<byte[]>> future, final int node,
+                       @NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+        future.whenComplete((response, exception) -> {
+            if (exception == null && (response.statusCode() == 201 || response.statusCode() == 202)) {
+                return;
+            }
+            try {
+                writer.execute(() -> store(routing.node(node), key, record));
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+            }
+        });
+    }
+
+    private void store(@NotNull final String node, @NotNull final ByteBuffer key,
+                       @NotNull final TimestampRecord record) {
+        try {
+            hints.add(node, key, record);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Exception while storing the hint: ", e);
+        }
+    }
+
+    private void replay() {
+        int budget = (int) (maxPerSecond * TICK_MILLIS / TimeUnit.SECONDS.toMillis(1));
+        for (int node = 0; node < routing.size() && budget > 0; node++) {
+            if (routing.isLocal(node)) {
+                continue;
+            }
+            try {
+                budget -= replay(node, budget);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Exception while replaying the hints: ", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand off the hints of the node while it acks them.
+     *
+     * @return amount of the hints replayed
+     */
+    private int replay(final int node, final int budget) throws IOException, InterruptedException {
+        final String name = routing.node(node);
+        List<HintStore.Hint> batch = hints.peek(name, Math.min(BATCH_SIZE, budget));
+        if (batch.isEmpty() || !isAvailable(node)) {
+            return 0;
+        }
+        int sent = 0;
+        while (!batch.isEmpty()) {
+            if (!send(node, batch)) {
+                break;
+            }
+            hints.remove(batch);
+            sent += batch.size();
+            replayed.addAndGet(batch.size());
+            if (sent >= budget) {
+                break;
+            }
+            batch = hints.peek(name, Math.min(BATCH_SIZE, budget - sent));
+        }
+        return sent;
+    }
+
+    private boolean isAvailable(final int node) throws InterruptedException {
+        final HttpRequest request = RequestUtils.requestBase(routing.node(node), STATUS_PATH).GET().build();
+        try {
+            return routing.client(node).send(request, BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private boolean send(final int node, @NotNull final List<HintStore.Hint> batch) throws InterruptedException {
+        final List<ByteBuffer> keys = new ArrayList<>(batch.size());
+        final List<ByteBuffer> records = new ArrayList<>(batch.size());
+        for (final HintStore.Hint hint : batch) {
+            keys.add(hint.getKey());
+            records.add(ByteBuffer.wrap(hint.getRecord().toBytes()));
+        }
+        final HttpRequest request = RequestUtils.requestBase(routing.node(node), ReadRepairer.REPAIRS_PATH)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(BatchCodec.encodeValues(keys, records)))
+                .build();
+        try {
+            return routing.client(node).send(request, BodyHandlers.discarding()).statusCode() == 201;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    long getReplayedCount() {
+        return replayed.get();
+    }
+
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    long getStoredCount() {
+        return hints.getStoredCount();
+    }
+
+    long getDroppedCount() {
+        return hints.getDroppedCount();
+    }
+
+    long getBytes() {
+        return hints.getBytes();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+        writer.shutdownNow();
+        try {
+            // The storage is closed after the service, so the replay and the stores in progress complete first
+            if (!executor.awaitTermination(TICK_MILLIS, TimeUnit.MILLISECONDS)
+                    || !writer.awaitTermination(TICK_MILLIS, TimeUnit.MILLISECONDS)) {
+                logger.log(Level.WARNING, "Hints replay or store didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -39,7 +39,7 @@ public class HttpResponseClusterImpl implements HttpResponse<byte[]> {
 
     @Override
     public byte[] body() {
-        return this.body.clone();
+        return this.body == null ? null : this.body.clone();
     }
 
     public HttpResponseClusterImpl setBody(final byte[] body) {
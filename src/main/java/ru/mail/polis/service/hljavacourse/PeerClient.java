@@ -0,0 +1,180 @@
+package ru.mail.polis.service.hljavacourse;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Redirect;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * HTTP client of one peer with the bounded amount of requests in flight.
+ * The requests over the limit wait in the bounded queue and the ones over the queue fail at once,
+ * so that the slow peer doesn't pile up the requests of the whole node.
+ * Every peer has its own client with the own selector thread and executor, and the connections are kept alive
+ * over HTTP/1.1, which one-nio speaks, instead of trying to upgrade every new connection to HTTP/2.
+ */
+final class PeerClient {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(1);
+
+    private final String node;
+    private final HttpClient client;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private int inFlight;
+    private long rejected;
+
+    /**
+     * Create the client of the peer.
+     *
+     * @param node to specify the peer
+     * @param threads to specify the amount of threads completing the responses
+     * @param maxInFlight to specify the amount of requests sent at once
+     * @param maxQueued to specify the amount of requests waiting to be sent
+     */
+    PeerClient(@NotNull final String node, final int threads, final int maxInFlight, final int maxQueued) {
+        this.node = node;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("peer-" + authority() + "-%d").setDaemon(true).build());
+        this.client = HttpClient.newBuilder()
+                .version(Version.HTTP_1_1)
+                .followRedirects(Redirect.NEVER)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Send the request once there is a free slot.
+     * The slot is released as soon as the response headers are received,
+     * so the streamed body doesn't hold it.
+     *
+     * @param request to send
+     * @param handler to specify the body handler
+     * @param <T> to specify the body type
+     * @return future of the response, failed with {@link RejectedExecutionException} if the queue is full
+     */
+    @NotNull
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(@NotNull final HttpRequest request,
+                                                     @NotNull final BodyHandler<T> handler) {
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        final Runnable task = () -> {
+            final CompletableFuture<HttpResponse<T>> sent;
+            try {
+                sent = client.sendAsync(request, handler);
+            } catch (RuntimeException e) {
+                // The request is refused before it is sent, the slot is free again
+                release();
+                result.completeExceptionally(e);
+                return;
+            }
+            sent.whenComplete((response, exception) -> {
+                release();
+                if (exception == null) {
+                    result.complete(response);
+                } else {
+                    result.completeExceptionally(exception);
+                }
+            });
+        };
+        synchronized (this) {
+            if (inFlight >= maxInFlight) {
+                if (queue.size() >= maxQueued) {
+                    rejected++;
+                    result.completeExceptionally(new RejectedExecutionException("Too many requests to " + node));
+                } else {
+                    queue.add(task);
+                }
+                return result;
+            }
+            inFlight++;
+        }
+        task.run();
+        return result;
+    }
+
+    /**
+     * Send the request and wait for the response.
+     *
+     * @param request to send
+     * @param handler to specify the body handler
+     * @param <T> to specify the body type
+     * @return response
+     * @throws IOException if the request fails or is rejected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @NotNull
+    <T> HttpResponse<T> send(@NotNull final HttpRequest request, @NotNull final BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        try {
+            return sendAsync(request, handler).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Request to " + node + " failed", e.getCause());
+        }
+    }
+
+    private void release() {
+        final Runnable next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        // The slot passes to the queued request, which is sent by the executor,
+        // so neither the completing thread nor the stack is held by the queue
+        try {
+            executor.execute(next);
+        } catch (RejectedExecutionException e) {
+            // The client is closed, the request fails by itself
+            next.run();
+        }
+    }
+
+    /**
+     * Get the peer address for the names of the threads and the metrics.
+     *
+     * @return host and port of the peer
+     */
+    @NotNull
+    String authority() {
+        final int scheme = node.indexOf("://");
+        return scheme < 0 ? node : node.substring(scheme + "://".length());
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued() {
+        return queue.size();
+    }
+
+    synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    void close() {
+        executor.shutdownNow();
+    }
+}
@@ -35,13 +35,12 @@ public class RF {
      * @param session to output responses
      * @param defaultRF to specify the default RF
      * @param clusterSize to specify the size of cluster
-     * @return RF value
+     * @return RF value, {@code null} if it is wrong and the error is already sent
      */
     public static RF calculateRF(final String replicas, @NotNull final HttpSession session,
                                  final RF defaultRF, final int clusterSize) throws IOException {
-        RF rf = null;
         try {
-            rf = replicas == null ? defaultRF : RF.of(replicas);
+            final RF rf = replicas == null ? defaultRF : RF.of(replicas);
             if (rf.ack < 1 || rf.from < rf.ack || rf.from > clusterSize) {
                 throw new IllegalArgumentException("From is too big!");
             }
@@ -49,7 +48,7 @@ public class RF {
         } catch (IllegalArgumentException e) {
             session.sendError(BAD_REQUEST, "Wrong RF!");
         }
-        return rf;
+        return null;
     }
 
     public int getFrom() {
@@ -0,0 +1,147 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the latest record to the replicas which answered the read with the older one.
+ * The repairs are sent after the response in background, the rate of them is limited
+ * and the ones over the limit are dropped, as the next read of the key repairs it again.
+ */
+final class ReadRepairer {
+    static final String REPAIRS_PATH = "/v0/repairs";
+
+    private static final Logger logger = Logger.getLogger(ReadRepairer.class.getName());
+
+    @NotNull
+    private final RoutingTable routing;
+    @NotNull
+    private final DAORocksDB dao;
+    @NotNull
+    private final Executor storage;
+    private final int maxPerSecond;
+
+    private double tokens;
+    private long refilledAt;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Create the read repairer.
+     *
+     * @param routing to specify the routing table of the cluster
+     * @param dao to repair the local replica
+     * @param storage to execute the local repairs
+     * @param maxPerSecond to specify the rate of the repairs
+     */
+    ReadRepairer(@NotNull final RoutingTable routing, @NotNull final DAORocksDB dao,
+                 @NotNull final Executor storage, final int maxPerSecond) {
+        this.routing = routing;
+        this.dao = dao;
+        this.storage = storage;
+        this.maxPerSecond = maxPerSecond;
+        this.tokens = maxPerSecond;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Repair the replicas older than the latest record.
+     *
+     * @param key to specify the key read
+     * @param nodes to specify the indices of the replica nodes
+     * @param records to specify the records of the replicas in the order of nodes, {@code null} if failed
+     * @param latest to specify the latest record among the replies
+     */
+    void repair(@NotNull final ByteBuffer key, @NotNull final int[] nodes,
+                @NotNull final TimestampRecord[] records, @NotNull final TimestampRecord latest) {
+        if (latest.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            final TimestampRecord record = records[i];
+            // The replica which failed to answer may be down, it isn't repaired
+            if (record != null && TimestampRecord.compare(record, latest) < 0) {
+                repair(nodes[i], key, latest);
+            }
+        }
+    }
+
+    private void repair(final int node, @NotNull final ByteBuffer key, @NotNull final TimestampRecord latest) {
+        if (!tryAcquire()) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (routing.isLocal(node)) {
+            repairLocal(key, latest);
+            return;
+        }
+        final PeerClient client = routing.client(node);
+        final byte[] body = BatchCodec.encodeValues(List.of(key.duplicate()),
+                List.of(ByteBuffer.wrap(latest.toBytes())));
+        final HttpRequest request = RequestUtils.requestBase(routing.node(node), REPAIRS_PATH)
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        client.sendAsync(request, BodyHandlers.discarding()).whenComplete((response, exception) -> {
+            if (exception == null && response.statusCode() == 201) {
+                sent.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        });
+    }
+
+    private void repairLocal(@NotNull final ByteBuffer key, @NotNull final TimestampRecord latest) {
+        try {
+            storage.execute(() -> {
+                try {
+                    dao.mergeRecordWithTimestamp(key.duplicate(), latest);
+                    sent.incrementAndGet();
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    logger.log(Level.WARNING, "Exception while repairing the local replica: ", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private synchronized boolean tryAcquire() {
+        final long now = System.nanoTime();
+        final double refill = (double) (now - refilledAt) * maxPerSecond / TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(maxPerSecond, tokens + refill);
+        refilledAt = now;
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    long getSentCount() {
+        return sent.get();
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    long getFailedCount() {
+        return failed.get();
+    }
+}
@@ -0,0 +1,84 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.RecordCursor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cursor over the range streamed by the peer as {@code <length><key><length><record>} frames.
+ * The stream is read as the cursor advances, so only the current record is held.
+ */
+final class RemoteRangeCursor implements RecordCursor {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger logger = Logger.getLogger(RemoteRangeCursor.class.getName());
+
+    private final DataInputStream in;
+    private byte[] key;
+    private byte[] value;
+
+    RemoteRangeCursor(@NotNull final InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        final int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        // The stream may end at the frame boundary only
+        final int keyLength = (first << 24) | (in.readUnsignedByte() << 16)
+                | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        key = readEntry(keyLength);
+        value = readEntry(in.readInt());
+        return true;
+    }
+
+    @NotNull
+    private byte[] readEntry(final int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Wrong entry length: " + length);
+        }
+        final byte[] entry = new byte[length];
+        in.readFully(entry);
+        return entry;
+    }
+
+    @NotNull
+    @Override
+    public byte[] key() {
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public byte[] value() {
+        return value;
+    }
+
+    @Override
+    public int valueOffset() {
+        return 0;
+    }
+
+    @Override
+    public int valueLength() {
+        return value.length;
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Exception while closing the range stream: ", e);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent {@link ReplicaRpc} connection to the peer.
+ * The calls are queued to the writer thread, which writes all the queued frames with one flush,
+ * and the reader thread completes the calls as their responses arrive.
+ * The calls waiting for the response are bounded like the requests of the {@link PeerClient},
+ * the calls over the limit or over the queue are rejected, and the frames of the calls timed out in the queue
+ * aren't written at all.
+ * The connection is opened on demand and reopened after a failure, the calls in flight fail with it.
+ */
+final class ReplicaChannel implements Closeable {
+    private static final Logger logger = Logger.getLogger(ReplicaChannel.class.getName());
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long CALL_TIMEOUT_SECONDS = 5;
+    private static final long RECONNECT_DELAY_MILLIS = 100;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String HEADERS_END = "\r\n\r\n";
+    private static final int MAX_IN_FLIGHT_CALLS = 1024;
+    private static final int MAX_QUEUED_CALLS = 4096;
+
+    private final String host;
+    private final int port;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, CompletableFuture<byte[]>> calls = new ConcurrentHashMap<>();
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_CALLS);
+    private final BlockingQueue<Outgoing> outbox = new ArrayBlockingQueue<>(MAX_QUEUED_CALLS);
+    private final Thread writer;
+
+    @Nullable
+    private Socket socket;
+    @Nullable
+    private OutputStream output;
+    private long reconnectAt;
+    private volatile boolean closed;
+
+    /**
+     * Create the channel to the peer, the connection is opened with the first call.
+     *
+     * @param node to specify the HTTP endpoint of the peer
+     */
+    ReplicaChannel(@NotNull final String node) {
+        final URI uri = URI.create(node);
+        this.host = uri.getHost();
+        this.port = uri.getPort();
+        this.writer = new Thread(this::write, "rpc-writer-" + port);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Call the peer.
+     *
+     * @param operation to specify the operation code
+     * @param payload to specify the request payload
+     * @return future completed with the response payload
+     *         or exceptionally if the peer fails the call or doesn't answer in time,
+     *         or with {@link RejectedExecutionException} if too many calls are in flight or queued
+     */
+    @NotNull
+    CompletableFuture<byte[]> call(final byte operation, @NotNull final byte[] payload) {
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        if (!inFlight.tryAcquire()) {
+            future.completeExceptionally(
+                    new RejectedExecutionException("Too many calls in flight to " + host + ":" + port));
+            return future;
+        }
+        final long id = ids.incrementAndGet();
+        calls.put(id, future);
+        future.orTimeout(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((response, exception) -> {
+                    calls.remove(id);
+                    inFlight.release();
+                });
+        if (closed) {
+            future.completeExceptionally(new IOException("Channel is closed"));
+        } else if (!outbox.offer(new Outgoing(ReplicaRpc.frame(id, operation, payload), future))) {
+            future.completeExceptionally(
+                    new RejectedExecutionException("Too many calls queued to " + host + ":" + port));
+        }
+        return future;
+    }
+
+    private void write() {
+        final List<Outgoing> frames = new ArrayList<>();
+        while (!closed) {
+            try {
+                frames.add(outbox.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            outbox.drainTo(frames);
+            OutputStream out = null;
+            try {
+                out = connect();
+                for (final Outgoing frame : frames) {
+                    // The call is timed out or failed while it was queued
+                    if (!frame.future.isDone()) {
+                        out.write(frame.bytes);
+                    }
+                }
+                out.flush();
+            } catch (IOException e) {
+                disconnect(out, e);
+            }
+            frames.clear();
+        }
+    }
+
+    @NotNull
+    private synchronized OutputStream connect() throws IOException {
+        if (output != null) {
+            return output;
+        }
+        if (System.currentTimeMillis() < reconnectAt) {
+            throw new IOException("Peer is unavailable " + host + ":" + port);
+        }
+        reconnectAt = System.currentTimeMillis() + RECONNECT_DELAY_MILLIS;
+        final Socket connection = new Socket();
+        try {
+            connection.setTcpNoDelay(true);
+            connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            connection.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            final OutputStream out = new BufferedOutputStream(connection.getOutputStream(), BUFFER_SIZE);
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(connection.getInputStream(), BUFFER_SIZE));
+            upgrade(out, in);
+            // The responses may take long when the peer is loaded, the calls time out by themselves
+            connection.setSoTimeout(0);
+            socket = connection;
+            output = out;
+            final Thread reader = new Thread(() -> read(out, in), "rpc-reader-" + port);
+            reader.setDaemon(true);
+            reader.start();
+            return out;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    private void upgrade(@NotNull final OutputStream out, @NotNull final DataInputStream in) throws IOException {
+        final String request = "GET " + ReplicaRpc.UPGRADE_PATH + " HTTP/1.1\r\n"
+                + "Host: " + host + ":" + port + "\r\n"
+                + "PROXY_HEADER: " + RequestUtils.PROXY_HEADER + "\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Upgrade: replica-rpc" + HEADERS_END;
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        // The peer doesn't send anything but the frames after the headers of the response
+        final StringBuilder response = new StringBuilder();
+        while (response.length() < HEADERS_END.length()
+                || response.lastIndexOf(HEADERS_END) != response.length() - HEADERS_END.length()) {
+            response.append((char) in.readUnsignedByte());
+        }
+        if (!response.toString().startsWith("HTTP/1.1 " + ReplicaRpc.SWITCHING_PROTOCOLS)) {
+            throw new IOException("Peer refused the protocol: " + response.toString().split("\r\n")[0]);
+        }
+    }
+
+    private void read(@NotNull final OutputStream out, @NotNull final DataInputStream in) {
+        try {
+            while (!closed) {
+                final int length = in.readInt();
+                ReplicaRpc.checkLength(length);
+                final long id = in.readLong();
+                final byte status = in.readByte();
+                final byte[] payload = new byte[length - ReplicaRpc.HEADER];
+                in.readFully(payload);
+                final CompletableFuture<byte[]> future = calls.get(id);
+                if (future == null) {
+                    // The call is timed out already
+                    continue;
+                }
+                if (status == ReplicaRpc.OK) {
+                    future.complete(payload);
+                } else {
+                    future.completeExceptionally(new IOException("Peer failed the call: " + status));
+                }
+            }
+        } catch (IOException e) {
+            disconnect(out, e);
+        }
+    }
+
+    /**
+     * Close the connection unless it is reopened already and fail the calls in flight.
+     */
+    private void disconnect(@Nullable final OutputStream out, @NotNull final IOException cause) {
+        if (out == null) {
+            // The connection failed to open
+            failCalls(cause);
+            return;
+        }
+        synchronized (this) {
+            if (out != output) {
+                return;
+            }
+            output = null;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Exception while closing the replica connection: ", e);
+            }
+            socket = null;
+        }
+        if (!closed) {
+            logger.log(Level.WARNING, "Replica connection to " + host + ":" + port + " failed: " + cause);
+        }
+        failCalls(cause);
+    }
+
+    private void failCalls(@NotNull final IOException cause) {
+        for (final CompletableFuture<byte[]> future : calls.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Frame queued to the writer with the call it belongs to.
+     */
+    private static final class Outgoing {
+        private final byte[] bytes;
+        private final CompletableFuture<byte[]> future;
+
+        Outgoing(@NotNull final byte[] bytes, @NotNull final CompletableFuture<byte[]> future) {
+            this.bytes = bytes;
+            this.future = future;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        final OutputStream out;
+        synchronized (this) {
+            out = output;
+        }
+        disconnect(out, new IOException("Channel is closed"));
+    }
+}
@@ -0,0 +1,168 @@
+package ru.mail.polis.service.hljavacourse;
+
+import one.nio.http.Request;
+import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+
+/**
+ * Per-request state of the replica replies.
+ * Replies are accounted as they complete and each of them is decoded exactly once,
+ * the response is decided as soon as enough replicas acked or all of them answered.
+ */
+final class ReplicaReplies {
+    private final int method;
+    private final int acks;
+    private final int from;
+    private final boolean proxied;
+
+    private int successes;
+    private int completed;
+    private TimestampRecord latest;
+    private boolean responded;
+
+    @Nullable
+    private ReadRepairer repairer;
+    private ByteBuffer key;
+    private int[] nodes;
+    private TimestampRecord[] records;
+
+    /**
+     * Create the replies state.
+     *
+     * @param method to specify the request method
+     * @param acks to specify the amount of acks required, capped by {@code from}
+     * @param from to specify the amount of replicas asked
+     * @param proxied to define whether the request is proxied
+     */
+    ReplicaReplies(final int method, final int acks, final int from, final boolean proxied) {
+        this.method = method;
+        this.acks = Math.min(acks, from);
+        this.from = from;
+        this.proxied = proxied;
+    }
+
+    /**
+     * Repair the replicas of the read once all of them answered.
+     *
+     * @param repairer to push the latest record to the stale replicas
+     * @param key to specify the key read
+     * @param nodes to specify the indices of the replica nodes in the order of replies
+     */
+    synchronized void repairWith(@NotNull final ReadRepairer repairer, @NotNull final ByteBuffer key,
+                                 @NotNull final int[] nodes) {
+        this.repairer = repairer;
+        this.key = key;
+        this.nodes = nodes;
+        this.records = new TimestampRecord[nodes.length];
+    }
+
+    /**
+     * Account the reply of the replica.
+     *
+     * @param replica to specify the index of the replica in the order of requests
+     * @param reply to specify the replica reply
+     * @return response to send or {@code null} if it is not decided yet or already sent
+     */
+    @Nullable
+    synchronized Response onReply(final int replica, @NotNull final HttpResponse<byte[]> reply) throws IOException {
+        completed++;
+        // The replies after the response are still decoded to find the stale replicas
+        if (responded && repairer == null) {
+            return null;
+        }
+        if (accept(replica, reply)) {
+            successes++;
+        }
+        return onCompleted();
+    }
+
+    /**
+     * Account the failed replica request.
+     *
+     * @return response to send or {@code null} if it is not decided yet or already sent
+     */
+    @Nullable
+    synchronized Response onFailure() throws IOException {
+        completed++;
+        return onCompleted();
+    }
+
+    /**
+     * Repair the stale replicas once all of them answered.
+     * It is called after the response is sent and outside the lock, so the repair delays neither of them.
+     */
+    void repairIfCompleted() {
+        final ReadRepairer pending;
+        final TimestampRecord record;
+        synchronized (this) {
+            if (completed < from || repairer == null) {
+                return;
+            }
+            // Only one of the callbacks runs the repair
+            pending = repairer;
+            repairer = null;
+            record = latest == null ? TimestampRecord.getEmpty() : latest;
+        }
+        pending.repair(key, nodes, records, record);
+    }
+
+    @Nullable
+    private Response onCompleted() throws IOException {
+        if (responded) {
+            return null;
+        }
+        return decide();
+    }
+
+    private boolean accept(final int replica, @NotNull final HttpResponse<byte[]> reply) {
+        switch (method) {
+            case Request.METHOD_GET:
+                if (reply.statusCode() != 200 && reply.statusCode() != 404) {
+                    return false;
+                }
+                final byte[] body = reply.body();
+                final TimestampRecord record = body == null || body.length == 0
+                        ? TimestampRecord.getEmpty()
+                        : TimestampRecord.fromBytes(body);
+                latest = TimestampRecord.latest(latest, record);
+                if (records != null) {
+                    records[replica] = record;
+                }
+                return true;
+            case Request.METHOD_PUT:
+                return reply.statusCode() == 201;
+            case Request.METHOD_DELETE:
+                return reply.statusCode() == 202;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private Response decide() throws IOException {
+        if (successes < acks && completed < from) {
+            return null;
+        }
+        responded = true;
+        if (successes < acks) {
+            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+        }
+        switch (method) {
+            case Request.METHOD_GET:
+                return RequestUtils.processResponse(proxied, from,
+                        latest == null ? TimestampRecord.getEmpty() : latest);
+            case Request.METHOD_PUT:
+                return new Response(Response.CREATED, Response.EMPTY);
+            case Request.METHOD_DELETE:
+                return new Response(Response.ACCEPTED, Response.EMPTY);
+            default:
+                return new Response(Response.METHOD_NOT_ALLOWED, Response.EMPTY);
+        }
+    }
+}
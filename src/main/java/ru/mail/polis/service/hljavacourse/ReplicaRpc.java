@@ -0,0 +1,121 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Binary protocol of the replica operations over the persistent connections between the nodes.
+ * The connection starts as HTTP and is switched to the protocol by {@code GET /v0/rpc},
+ * then both sides send {@code <length><request id><code><payload>} frames,
+ * where the length (big-endian int) covers the rest of the frame.
+ * The request code is the operation and the response code is the status, the responses go in any order
+ * and are matched to the requests by the id, so that the requests are pipelined.
+ */
+final class ReplicaRpc {
+    static final String UPGRADE_PATH = "/v0/rpc";
+    static final String SWITCHING_PROTOCOLS = "101 Switching Protocols";
+
+    /**
+     * Read the encoded record of the key, the payload is the key.
+     * The response is the encoded record or empty if there is none.
+     */
+    static final byte GET = 1;
+    /**
+     * Write the records with timestamp encoded by {@link BatchCodec#encodeValues} as they are,
+     * the response is the per-key acks.
+     */
+    static final byte WRITES = 2;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    static final int HEADER = Long.BYTES + 1;
+    private static final int MAX_FRAME = 64 * 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private ReplicaRpc() {
+        // Not instantiatable
+    }
+
+    /**
+     * Handler of the decoded frames.
+     */
+    @FunctionalInterface
+    interface FrameHandler {
+        void onFrame(long id, byte code, @NotNull byte[] payload) throws IOException;
+    }
+
+    /**
+     * Encode the frame.
+     *
+     * @param id to specify the request id
+     * @param code to specify the operation or the status
+     * @param payload to specify the payload
+     * @return encoded frame
+     */
+    @NotNull
+    static byte[] frame(final long id, final byte code, @NotNull final byte[] payload) {
+        return ByteBuffer.allocate(Integer.BYTES + HEADER + payload.length)
+                .putInt(HEADER + payload.length)
+                .putLong(id)
+                .put(code)
+                .put(payload)
+                .array();
+    }
+
+    /**
+     * Check the length of the frame read from the peer.
+     *
+     * @param length to specify the length of the rest of the frame
+     * @throws IOException if the length is malformed
+     */
+    static void checkLength(final int length) throws IOException {
+        if (length < HEADER || length > MAX_FRAME) {
+            throw new IOException("Wrong frame length: " + length);
+        }
+    }
+
+    /**
+     * Decoder of the frames split between the reads in any way.
+     */
+    static final class Decoder {
+        private byte[] buffer = new byte[1024];
+        private int length;
+
+        /**
+         * Decode the complete frames and keep the rest for the next read.
+         *
+         * @param data to specify the bytes read
+         * @param count to specify the amount of bytes read
+         * @param handler to handle the complete frames
+         * @throws IOException if the frame is malformed or the handler fails
+         */
+        void feed(@NotNull final byte[] data, final int count, @NotNull final FrameHandler handler)
+                throws IOException {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+            System.arraycopy(data, 0, buffer, length, count);
+            length += count;
+            final ByteBuffer frames = ByteBuffer.wrap(buffer, 0, length);
+            while (frames.remaining() >= Integer.BYTES) {
+                final int size = frames.getInt(frames.position());
+                checkLength(size);
+                if (frames.remaining() < Integer.BYTES + size) {
+                    break;
+                }
+                frames.getInt();
+                final long id = frames.getLong();
+                final byte code = frames.get();
+                final byte[] payload = size == HEADER ? EMPTY : new byte[size - HEADER];
+                frames.get(payload);
+                handler.onFrame(id, code, payload);
+            }
+            length = frames.remaining();
+            System.arraycopy(buffer, frames.position(), buffer, 0, length);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package ru.mail.polis.service.hljavacourse;
 import one.nio.http.Request;
 import one.nio.http.Response;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAORocksDB;
 import ru.mail.polis.dao.TimestampRecord;
@@ -14,26 +15,29 @@ import java.net.http.HttpResponse;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static java.time.temporal.ChronoUnit.SECONDS;
 
 public final class RequestUtils {
-    private static final String PROXY_HEADER = "X-OK-Proxy: True";
-    private static final Logger logger = Logger.getLogger(RequestUtils.class.getName());
-    private boolean proxied;
+    static final String PROXY_HEADER = "X-OK-Proxy: True";
+    private static final long MAX_TTL_SECONDS = Integer.MAX_VALUE;
+    private static final Base64.Encoder TOKEN_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder TOKEN_DECODER = Base64.getUrlDecoder();
     @NotNull
     private final DAORocksDB dao;
+    @NotNull
+    private final Executor storage;
 
-    public RequestUtils(final boolean proxied, @NotNull final DAO dao) {
-        this.proxied = proxied;
+    public RequestUtils(@NotNull final DAO dao, @NotNull final Executor storage) {
         this.dao = (DAORocksDB) dao;
+        this.storage = storage;
     }
 
     public static ByteBuffer parseKey(final Request rqst) {
@@ -41,178 +45,283 @@ public final class RequestUtils {
         return ByteBuffer.wrap(id.getBytes(StandardCharsets.UTF_8));
     }
 
-    public void setProxied(final boolean proxied) {
-        this.proxied = proxied;
+    /**
+     * Parse the optional TTL of the written record.
+     *
+     * @param rqst to specify the request
+     * @return TTL in seconds or {@code 0} if not specified
+     * @throws IllegalArgumentException if the TTL is malformed
+     */
+    public static long parseTtl(final Request rqst) {
+        final String ttl = rqst.getParameter("ttl=");
+        if (ttl == null) {
+            return 0;
+        }
+        final long seconds = Long.parseLong(ttl);
+        if (seconds <= 0 || seconds > MAX_TTL_SECONDS) {
+            throw new IllegalArgumentException("Wrong ttl: " + ttl);
+        }
+        return seconds;
     }
 
     /**
-     * Get the base part of the request builder.
+     * Get the expiration time of the written record.
+     *
+     * @param rqst to specify the request with the TTL validated by {@link #parseTtl(Request)}
+     * @return expiration time or {@link TimestampRecord#NEVER} if the TTL is not specified
+     */
+    public static long expiresAt(final Request rqst) {
+        final long ttl = parseTtl(rqst);
+        return ttl == 0 ? TimestampRecord.NEVER : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl);
+    }
+
+    /**
+     * Parse the order of the range.
      *
-     * @param node to specify node
      * @param rqst to specify the request
-     * @return base part of the request to build
+     * @return {@code true} if the range is requested in the descending order of keys
+     * @throws IllegalArgumentException if the order is malformed
      */
-    public static HttpRequest.Builder requestBase(final String node, final Request rqst) {
-        return HttpRequest.newBuilder()
-                .uri(URI.create(node + rqst.getURI()))
-                .timeout(Duration.of(5, SECONDS))
-                .setHeader("PROXY_HEADER", PROXY_HEADER);
+    public static boolean isDescending(final Request rqst) {
+        final String order = rqst.getParameter("order=");
+        if (order == null || "asc".equals(order)) {
+            return false;
+        }
+        if ("desc".equals(order)) {
+            return true;
+        }
+        throw new IllegalArgumentException("Wrong order: " + order);
     }
 
     /**
-     * Process the futures associated with deleting.
+     * Parse the first key of the range.
+     * The continuation token of the ascending range goes first,
+     * then the start key, which is moved up to the prefix if it is lower.
+     * The descending range starts from the lowest key by default.
      *
-     * @param asks to specify current number of acks
-     * @param futures to specify the future requests
-     * @param acks to specify the amount of acks required
-     * @return response
+     * @param rqst to specify the request
+     * @return first key (inclusive) or {@code null} if neither is specified for the ascending range
+     * @throws IllegalArgumentException if the order or the continuation token is malformed
      */
-    public Response postProcessDeleteFutures(final AtomicInteger asks, final int acks,
-                                             final List<CompletableFuture<HttpResponse<byte[]>>> futures) {
-        asks.set(checkCodeAndIncrement(asks, 202, futures));
-        if (asks.get() >= futures.size() || asks.get() >= acks) {
-            return new Response(Response.ACCEPTED, Response.EMPTY);
-        } else {
-            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+    @Nullable
+    public static ByteBuffer rangeStart(final Request rqst) {
+        final boolean descending = isDescending(rqst);
+        final byte[] token = continuation(rqst);
+        if (token != null && !descending) {
+            return ByteBuffer.wrap(token);
+        }
+        final ByteBuffer start = parameterBytes(rqst, "start=");
+        final ByteBuffer prefix = parameterBytes(rqst, "prefix=");
+        if (start == null && prefix == null && descending) {
+            return ByteBuffer.allocate(0);
+        }
+        if (start == null || prefix != null && start.compareTo(prefix) < 0) {
+            return prefix;
         }
+        return start;
     }
 
-    private int checkCodeAndIncrement(final AtomicInteger asks, final int code,
-                                      final List<CompletableFuture<HttpResponse<byte[]>>> futures) {
-        for (final var futureTask : futures) {
-            try {
-                if (futureTask.isCompletedExceptionally()) continue;
-                if (futureTask.get().statusCode() == code) {
-                    asks.incrementAndGet();
-                }
-            } catch (ExecutionException | InterruptedException e) {
-                logger.log(Level.SEVERE, "Exception while trying to get the future value: ", e);
-            }
+    /**
+     * Parse the bound of the range as the end key or the end of the prefix whichever is lower.
+     * The continuation token of the descending range goes first, as the range continues from the token key.
+     *
+     * @param rqst to specify the request with the order and the token validated by {@link #rangeStart(Request)}
+     * @return last key (exclusive) or {@code null} for no bound
+     */
+    @Nullable
+    public static ByteBuffer rangeEnd(final Request rqst) {
+        final byte[] token = continuation(rqst);
+        if (token != null && isDescending(rqst)) {
+            // The key right after the token key is the token key followed by the lowest byte
+            final byte[] end = Arrays.copyOf(token, token.length + 1);
+            end[token.length] = Byte.MIN_VALUE;
+            return ByteBuffer.wrap(end);
         }
-        return asks.get();
+        final ByteBuffer end = parameterBytes(rqst, "end=");
+        final ByteBuffer prefix = parameterBytes(rqst, "prefix=");
+        final ByteBuffer prefixEnd = prefix == null ? null : prefixEnd(prefix.array());
+        if (end == null || prefixEnd != null && prefixEnd.compareTo(end) < 0) {
+            return prefixEnd;
+        }
+        return end;
     }
 
     /**
-     * Execute local request asynchronously.
+     * Parse the optional limit of the range.
      *
      * @param rqst to specify the request
-     * @return future result
+     * @return maximal amount of the records or {@code 0} if not specified
+     * @throws IllegalArgumentException if the limit is malformed
      */
-    public CompletableFuture<HttpResponse<byte[]>> asyncExecuteLocalRequest(final Request rqst) {
-        return CompletableFuture.supplyAsync(() -> {
-            HttpResponseClusterImpl resp;
-            try {
-                switch (rqst.getMethod()) {
-                    case Request.METHOD_DELETE:
-                        deleteWithTimestampMethodWrapper(parseKey(rqst));
-                        return new HttpResponseClusterImpl().setStatusCode(202);
-                    case Request.METHOD_PUT:
-                        putWithTimestampMethodWrapper(parseKey(rqst), rqst);
-                        return new HttpResponseClusterImpl().setStatusCode(201);
-                    case Request.METHOD_GET:
-                        final Response respGet = getWithTimestampMethodWrapper(parseKey(rqst));
-                        return new HttpResponseClusterImpl().setStatusCode(respGet.getStatus())
-                                .setBody(respGet.getBody());
-                    default:
-                        return new HttpResponseClusterImpl().setStatusCode(405);
-                }
-            } catch (IOException e) {
-                resp = new HttpResponseClusterImpl().setStatusCode(404);
-            }
-            return resp;
-        });
+    public static int parseLimit(final Request rqst) {
+        final String limit = rqst.getParameter("limit=");
+        if (limit == null) {
+            return 0;
+        }
+        final int records = Integer.parseInt(limit);
+        if (records <= 0) {
+            throw new IllegalArgumentException("Wrong limit: " + limit);
+        }
+        return records;
     }
 
     /**
-     * Process the futures associated with putting.
+     * Encode the key to continue the range from.
      *
-     * @param asks to specify current number of acks
-     * @param futures to specify the future requests
-     * @param acks to specify the amount of acks required
-     * @return response
+     * @param key to specify the first key of the next page
+     * @return token for the {@code token=} parameter
      */
-    public Response postProcessPutFutures(final AtomicInteger asks, final int acks,
-                                          final List<CompletableFuture<HttpResponse<byte[]>>> futures) {
-        asks.set(checkCodeAndIncrement(asks, 201, futures));
-        if (asks.get() >= futures.size() || asks.get() >= acks) return new Response(Response.CREATED, Response.EMPTY);
-        else return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+    @NotNull
+    public static String continuationToken(@NotNull final byte[] key) {
+        return TOKEN_ENCODER.encodeToString(key);
     }
 
     /**
-     * Process the futures associated with getting.
+     * Parse the continuation token.
      *
-     * @param responses current list of records to fill
-     * @param asks to specify current number of acks
-     * @param futures to specify the future requests
-     * @param replicaNodes to specify the nodes to which to replicate
-     * @param acks to specify the amount of acks required
-     * @return response
+     * @param rqst to specify the request
+     * @return key to continue from or {@code null} if there is no token
+     * @throws IllegalArgumentException if the token is malformed
      */
-    public Response postProcessGetFutures(final List<TimestampRecord> responses, final AtomicInteger asks,
-                                          final List<CompletableFuture<HttpResponse<byte[]>>> futures,
-                                          final String[] replicaNodes, final int acks) throws IOException {
-        for (final var futureTask : futures) {
-            try {
-                if (futureTask.isCompletedExceptionally()) continue;
-                if (futureTask.get().body().length == 0) {
-                    responses.add(TimestampRecord.getEmpty());
-                } else if (futureTask.get().statusCode() != 500) {
-                    responses.add(TimestampRecord.fromBytes(futureTask.get().body()));
-                }
-                asks.incrementAndGet();
-            } catch (ExecutionException | InterruptedException e) {
-                logger.log(Level.SEVERE, "Exception while processing get request: ", e);
-            }
+    @Nullable
+    static byte[] continuation(final Request rqst) {
+        final String token = rqst.getParameter("token=");
+        if (token == null || token.isEmpty()) {
+            return null;
         }
-        if (asks.get() >= futures.size() || asks.get() >= acks) {
-            return processResponses(replicaNodes, responses);
-        } else {
-            return new Response(Response.GATEWAY_TIMEOUT, Response.EMPTY);
+        return TOKEN_DECODER.decode(token);
+    }
+
+    @Nullable
+    private static ByteBuffer parameterBytes(final Request rqst, final String name) {
+        final String value = rqst.getParameter(name);
+        if (value == null || value.isEmpty()) {
+            return null;
         }
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Nullable
+    private static ByteBuffer prefixEnd(@NotNull final byte[] prefix) {
+        // The keys are compared as signed bytes, so the prefix ends at the next value of its last byte below max
+        int last = prefix.length - 1;
+        while (last >= 0 && prefix[last] == Byte.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        final byte[] end = Arrays.copyOf(prefix, last + 1);
+        end[last]++;
+        return ByteBuffer.wrap(end);
     }
 
     /**
-     * Process the futures associated with putting.
+     * Get the base part of the request builder.
      *
-     * @param replicaNodes to specify the nodes to which to replicate
-     * @param responses list of current responses
-     * @return response
+     * @param node to specify node
+     * @param rqst to specify the request
+     * @return base part of the request to build
      */
-    public Response processResponses(final String[] replicaNodes,
-                                      final List<TimestampRecord> responses) throws IOException {
-        final TimestampRecord mergedResp = TimestampRecord.merge(responses);
-        if (mergedResp.isValue()) {
-            if (!proxied && replicaNodes.length == 1) {
-                return new Response(Response.OK, mergedResp.getValueAsBytes());
-            } else if (proxied && replicaNodes.length == 1) {
-                return new Response(Response.OK, mergedResp.toBytes());
-            } else {
-                return new Response(Response.OK, mergedResp.getValueAsBytes());
-            }
-        } else if (mergedResp.isDeleted()) {
-            return new Response(Response.NOT_FOUND, mergedResp.toBytes());
-        } else {
-            return new Response(Response.NOT_FOUND, Response.EMPTY);
+    public static HttpRequest.Builder requestBase(final String node, final Request rqst) {
+        return requestBase(node, rqst.getURI());
+    }
+
+    /**
+     * Get the base part of the request builder.
+     *
+     * @param node to specify node
+     * @param uri to specify the path and query of the request
+     * @return base part of the request to build
+     */
+    public static HttpRequest.Builder requestBase(final String node, final String uri) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(node + uri))
+                .timeout(Duration.of(5, SECONDS))
+                .setHeader("PROXY_HEADER", PROXY_HEADER);
+    }
+
+    /**
+     * Execute local request asynchronously.
+     *
+     * @param rqst to specify the request
+     * @return future result, {@code 503} if the storage is saturated
+     */
+    public CompletableFuture<HttpResponse<byte[]>> asyncExecuteLocalRequest(final Request rqst) {
+        try {
+            return CompletableFuture.supplyAsync(() -> executeLocalRequest(rqst), storage);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(new HttpResponseClusterImpl().setStatusCode(503));
         }
     }
 
     /**
-     * Access dao and put the required key.
+     * Write the record created by the coordinator to the local replica asynchronously,
+     * so every replica stores the same timestamp and expiration time.
      *
-     * @param key to specify the key to put
-     * @param request to specify the request
+     * @param key to specify the key
+     * @param record to write, either a value or a tombstone
+     * @return future result, {@code 201} for a value or {@code 202} for a tombstone,
+     *         {@code 503} if the storage is saturated
      */
-    public void putWithTimestampMethodWrapper(final ByteBuffer key, final Request request) throws IOException {
-        dao.upsertRecordWithTimestamp(key, ByteBuffer.wrap(request.getBody()));
+    public CompletableFuture<HttpResponse<byte[]>> asyncWriteLocalRecord(final ByteBuffer key,
+                                                                         final TimestampRecord record) {
+        try {
+            return CompletableFuture.supplyAsync(() -> writeLocalRecord(key, record), storage);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(new HttpResponseClusterImpl().setStatusCode(503));
+        }
+    }
+
+    private HttpResponse<byte[]> writeLocalRecord(final ByteBuffer key, final TimestampRecord record) {
+        try {
+            dao.writeRecordWithTimestamp(key, record);
+            return new HttpResponseClusterImpl().setStatusCode(record.isDeleted() ? 202 : 201);
+        } catch (IOException e) {
+            return new HttpResponseClusterImpl().setStatusCode(500);
+        }
+    }
+
+    private HttpResponse<byte[]> executeLocalRequest(final Request rqst) {
+        HttpResponseClusterImpl resp;
+        try {
+            switch (rqst.getMethod()) {
+                case Request.METHOD_GET:
+                    final Response respGet = getWithTimestampMethodWrapper(parseKey(rqst));
+                    return new HttpResponseClusterImpl().setStatusCode(respGet.getStatus())
+                            .setBody(respGet.getBody());
+                default:
+                    return new HttpResponseClusterImpl().setStatusCode(405);
+            }
+        } catch (IOException e) {
+            resp = new HttpResponseClusterImpl().setStatusCode(404);
+        }
+        return resp;
     }
 
     /**
-     * Access dao and delete the required key.
+     * Build the response from the merged replica records.
+     * The expired value is answered the same way as the tombstone.
      *
-     * @param key to specify the key to put
+     * @param proxied to define whether the request is proxied
+     * @param replicas to specify the amount of replicas asked
+     * @param mergedResp to specify the latest record among the replies
+     * @return response
      */
-    public void deleteWithTimestampMethodWrapper(final ByteBuffer key) throws IOException {
-        dao.removeRecordWithTimestamp(key);
+    public static Response processResponse(final boolean proxied, final int replicas,
+                                           final TimestampRecord mergedResp) throws IOException {
+        final boolean expired = mergedResp.isExpired(System.currentTimeMillis());
+        if (mergedResp.isValue() && !expired) {
+            if (proxied && replicas == 1) {
+                return new Response(Response.OK, mergedResp.toBytes());
+            } else {
+                return new Response(Response.OK, mergedResp.getValueAsBytes());
+            }
+        } else if (mergedResp.isDeleted() || expired) {
+            return new Response(Response.NOT_FOUND, mergedResp.toBytes());
+        } else {
+            return new Response(Response.NOT_FOUND, Response.EMPTY);
+        }
     }
 
     /**
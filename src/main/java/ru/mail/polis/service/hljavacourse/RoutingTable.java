@@ -0,0 +1,130 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable routing table precomputed from the {@link Topology}.
+ * Nodes are addressed by their indices, so routing a request costs a few array reads.
+ */
+final class RoutingTable {
+    private final Topology<String> topology;
+    private final String[] nodes;
+    private final PeerClient[] clients;
+    private final boolean[] local;
+    private final int me;
+    private final RF defaultRF;
+    private final ThreadLocal<Replicas> replicas;
+
+    /**
+     * Reusable view of the replica indices.
+     * It is owned by the calling thread and valid until the next lookup on that thread.
+     */
+    static final class Replicas {
+        private final int[] indices;
+        private int size;
+
+        Replicas(final int capacity) {
+            this.indices = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(final int i) {
+            return indices[i];
+        }
+    }
+
+    /**
+     * Create the routing table.
+     *
+     * @param topology to specify the cluster nodes
+     * @param clients to specify the clients of the other nodes
+     */
+    RoutingTable(@NotNull final Topology<String> topology, @NotNull final Map<String, PeerClient> clients) {
+        this.topology = topology;
+        final List<String> all = topology.nodes();
+        this.nodes = all.toArray(new String[0]);
+        this.clients = new PeerClient[nodes.length];
+        this.local = new boolean[nodes.length];
+        int self = -1;
+        for (int i = 0; i < nodes.length; i++) {
+            local[i] = topology.isMe(nodes[i]);
+            if (local[i]) {
+                self = i;
+            } else {
+                this.clients[i] = clients.get(nodes[i]);
+            }
+        }
+        this.me = self;
+        this.defaultRF = new RF(nodes.length / 2 + 1, nodes.length);
+        this.replicas = ThreadLocal.withInitial(() -> new Replicas(nodes.length));
+    }
+
+    int size() {
+        return nodes.length;
+    }
+
+    @NotNull
+    String node(final int index) {
+        return nodes[index];
+    }
+
+    boolean isLocal(final int index) {
+        return local[index];
+    }
+
+    @Nullable
+    PeerClient client(final int index) {
+        return clients[index];
+    }
+
+    /**
+     * Release the clients of the other nodes.
+     */
+    void close() {
+        for (final PeerClient client : clients) {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    @NotNull
+    RF getDefaultRF() {
+        return defaultRF;
+    }
+
+    /**
+     * Get the replicas for the key.
+     *
+     * @param count the amount of replicas
+     * @param key key id
+     * @return thread local view of the replica indices
+     */
+    @NotNull
+    Replicas replicas(final int count, @NotNull final ByteBuffer key) {
+        final Replicas view = replicas.get();
+        view.size = topology.replicas(count, key, view.indices);
+        return view;
+    }
+
+    /**
+     * Get this node as the only replica.
+     *
+     * @return thread local view of the replica indices
+     */
+    @NotNull
+    Replicas local() {
+        final Replicas view = replicas.get();
+        view.indices[0] = me;
+        view.size = 1;
+        return view;
+    }
+}
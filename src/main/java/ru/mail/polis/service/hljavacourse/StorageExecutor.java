@@ -0,0 +1,84 @@
+package ru.mail.polis.service.hljavacourse;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded executor for the blocking storage I/O.
+ * Tasks exceeding the queue capacity are rejected instead of queueing forever,
+ * so the callers can answer {@code 503} right away.
+ */
+final class StorageExecutor implements Executor {
+    private static final Logger logger = Logger.getLogger(StorageExecutor.class.getName());
+    private static final long STOP_TIMEOUT_SECONDS = 5;
+
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Create the storage executor.
+     *
+     * @param threads to specify the amount of storage threads
+     * @param queueCapacity to specify the amount of tasks waiting for a thread
+     */
+    StorageExecutor(final int threads, final int queueCapacity) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("storage-%d").build(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Execute the task or reject it if the queue is full.
+     *
+     * @throws RejectedExecutionException if the executor is saturated or stopped
+     */
+    @Override
+    public void execute(@NotNull final Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     * Stop accepting the tasks and wait for the submitted ones, the storage is closed after the service.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.log(Level.WARNING, "Storage tasks didn't complete in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
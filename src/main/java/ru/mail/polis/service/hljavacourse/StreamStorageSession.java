@@ -5,90 +5,283 @@ import one.nio.http.HttpSession;
 import one.nio.http.Response;
 import one.nio.net.Socket;
 import org.jetbrains.annotations.NotNull;
-import ru.mail.polis.Record;
+import org.jetbrains.annotations.Nullable;
+import ru.mail.polis.dao.RecordCursor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Iterator;
 
 final class StreamStorageSession extends HttpSession {
-    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.UTF_8);
     private static final byte LF = '\n';
     private static final byte[] EMPTY_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+    private static final String CONTINUATION_TRAILER = "X-Continuation: ";
 
-    private Iterator<Record> records;
+    /**
+     * Encoding of the streamed records.
+     */
+    enum Format {
+        /**
+         * {@code <key>\n<value>} chunk per record.
+         */
+        LINES,
+        /**
+         * {@code <length><key><length><value>} frames packed into the chunks up to {@link ChunkBuffer#CAPACITY}.
+         */
+        FRAMES
+    }
+
+    private RecordCursor records;
+    private Format format;
+    private ChunkBuffer buffer;
+    private boolean hasRecord;
+    private boolean closed;
+    private ReplicaRpc.Decoder rpc;
+    private ReplicaRpc.FrameHandler rpcHandler;
 
     StreamStorageSession(@NotNull final Socket socket,
                          @NotNull final HttpServer server) {
         super(socket, server);
     }
 
-    void stream(@NotNull final Iterator<Record> records) throws IOException {
+    /**
+     * Stream the records reading them in the session threads as the socket becomes writable.
+     *
+     * @param records to stream, closed by the session
+     * @param format to encode the records
+     */
+    synchronized void stream(@NotNull final RecordCursor records, @NotNull final Format format) throws IOException {
+        try {
+            this.hasRecord = records.advance();
+        } catch (IOException e) {
+            records.close();
+            throw e;
+        }
         this.records = records;
+        this.format = format;
+        if (buffer == null) {
+            buffer = ChunkBuffer.acquire();
+        }
 
-        final Response response = new Response(Response.OK);
-        response.addHeader("Transfer-Encoding: chunked");
-        writeResponse(response, false);
+        writeChunkedResponse();
 
         next();
     }
 
-    @NotNull
-    private static byte[] toByteArray(@NotNull final ByteBuffer buffer) {
-        final byte[] result = new byte[buffer.remaining()];
-        buffer.get(result);
-        return result;
+    /**
+     * Stream the records reading them in the calling thread, which waits while the last write is not flushed.
+     * Slow sources don't block the session threads and only one buffer of chunks is held.
+     * If the records fail after the response is started, the session is closed without the last chunk,
+     * so the client can tell the truncated response.
+     *
+     * @param records to stream, closed on return
+     * @param format to encode the records
+     * @throws IOException if the records fail before the response is started
+     */
+    void produce(@NotNull final RecordCursor records, @NotNull final Format format) throws IOException {
+        try (records) {
+            boolean next = records.advance();
+            writeChunkedResponse();
+            final ChunkBuffer chunks = ChunkBuffer.acquire();
+            try {
+                while (next) {
+                    if (!awaitFlushed()) {
+                        return;
+                    }
+                    chunks.clear();
+                    next = fill(records, format, chunks);
+                    write(chunks.array(), 0, chunks.flip());
+                }
+                if (!awaitFlushed()) {
+                    return;
+                }
+                synchronized (this) {
+                    finish(format, records.continuation());
+                }
+            } catch (IOException e) {
+                log.error("Range stream failed", e);
+                scheduleClose();
+            } finally {
+                // The session doesn't queue the array any more, as it is flushed or closed
+                chunks.release();
+            }
+        }
+    }
+
+    private synchronized boolean awaitFlushed() {
+        try {
+            while (queueHead != null && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            scheduleClose();
+            return false;
+        }
+        return !closed;
+    }
+
+    /**
+     * Switch the connection to {@link ReplicaRpc} frames, the reads after that don't go to HTTP parsing.
+     *
+     * @param handler to handle the request frames, the responses are sent with {@link #reply(long, byte, byte[])}
+     */
+    void upgrade(@NotNull final ReplicaRpc.FrameHandler handler) {
+        this.rpcHandler = handler;
+        this.rpc = new ReplicaRpc.Decoder();
+    }
+
+    /**
+     * Send the response frame of the replica call.
+     *
+     * @param id to specify the request id
+     * @param status to specify the status code
+     * @param payload to specify the response payload
+     */
+    void reply(final long id, final byte status, @NotNull final byte[] payload) {
+        final byte[] frame = ReplicaRpc.frame(id, status, payload);
+        try {
+            write(frame, 0, frame.length);
+        } catch (IOException e) {
+            log.debug("Replica call response is lost", e);
+        }
+    }
+
+    @Override
+    protected void processRead(final byte[] buffer) throws Exception {
+        if (rpc == null) {
+            super.processRead(buffer);
+            return;
+        }
+        rpc.feed(buffer, read(buffer, 0, buffer.length), rpcHandler);
     }
 
     @Override
     protected void processWrite() throws Exception {
         super.processWrite();
 
+        synchronized (this) {
+            notifyAll();
+        }
         next();
     }
 
-    private byte[] getByteArr(final int size) {
-        return new byte[size];
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+        if (records != null) {
+            records.close();
+            records = null;
+        }
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+        super.close();
     }
 
-    private void next() throws IOException {
-        while (records.hasNext() && queueHead == null) {
-            final Record record = records.next();
-            final byte[] key = toByteArray(record.getKey());
-            final byte[] value = toByteArray(record.getValue());
+    private void writeChunkedResponse() throws IOException {
+        final Response response = new Response(Response.OK);
+        response.addHeader("Transfer-Encoding: chunked");
+        response.addHeader("Trailer: X-Continuation");
+        writeResponse(response, false);
+    }
 
-            final int payloadLength = key.length + 1 + value.length;
-            final String size = Integer.toHexString(payloadLength);
+    /**
+     * Pack the records into the buffer starting from the current one.
+     *
+     * @return {@code true} if the current record didn't fit and is left for the next buffer
+     */
+    private static boolean fill(@NotNull final RecordCursor records, @NotNull final Format format,
+                                @NotNull final ChunkBuffer chunks) throws IOException {
+        do {
+            if (!append(records, format, chunks)) {
+                return true;
+            }
+        } while (records.advance());
+        return false;
+    }
 
-            final int chunkLength = size.length() + 2 + payloadLength + 2;
+    private static boolean append(@NotNull final RecordCursor records, @NotNull final Format format,
+                                  @NotNull final ChunkBuffer chunks) {
+        final byte[] key = records.key();
+        final int valueLength = records.valueLength();
+        if (format == Format.LINES) {
+            if (!chunks.begin(key.length + 1 + valueLength, true)) {
+                return false;
+            }
+            chunks.put(key, 0, key.length);
+            chunks.put(LF);
+        } else {
+            if (!chunks.begin(Integer.BYTES + key.length + Integer.BYTES + valueLength, false)) {
+                return false;
+            }
+            chunks.putInt(key.length);
+            chunks.put(key, 0, key.length);
+            chunks.putInt(valueLength);
+        }
+        chunks.put(records.value(), records.valueOffset(), valueLength);
+        return true;
+    }
+
+    /**
+     * Encode the continuation as the last record with the empty key, which the clients can read unlike the trailer,
+     * followed by the last chunk with the trailer. The empty keys are not stored, so the record can't be mistaken.
+     */
+    @NotNull
+    private static byte[] continuationChunks(@NotNull final Format format, @NotNull final byte[] continuation) {
+        final String token = RequestUtils.continuationToken(continuation);
+        final byte[] value = token.getBytes(StandardCharsets.US_ASCII);
+        final int length = format == Format.LINES ? 1 + value.length : Integer.BYTES * 2 + value.length;
+        final byte[] header = (Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        final byte[] trailer = ("\r\n0\r\n" + CONTINUATION_TRAILER + token + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer chunks = ByteBuffer.allocate(header.length + length + trailer.length).put(header);
+        if (format == Format.LINES) {
+            chunks.put(LF);
+        } else {
+            chunks.putInt(0).putInt(value.length);
+        }
+        return chunks.put(value).put(trailer).array();
+    }
 
-            final byte[] chunk = getByteArr(chunkLength);
-            final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    private synchronized void next() throws IOException {
+        if (records != null) {
+            // The buffer is refilled only when the session doesn't queue it
+            while (hasRecord && queueHead == null) {
+                buffer.clear();
+                hasRecord = fill(records, format, buffer);
+                write(buffer.array(), 0, buffer.flip());
+            }
 
-            buffer.put(size.getBytes(StandardCharsets.UTF_8));
-            buffer.put(CRLF);
-            buffer.put(key);
-            buffer.put(LF);
-            buffer.put(value);
-            buffer.put(CRLF);
-            write(chunk, 0, chunkLength);
+            if (!hasRecord) {
+                final byte[] continuation = records.continuation();
+                records.close();
+                records = null;
+                finish(format, continuation);
+            }
         }
+        if (buffer != null && records == null && queueHead == null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
 
-        if (!records.hasNext()) {
-            write(EMPTY_CHUNK, 0, EMPTY_CHUNK.length);
+    private void finish(@NotNull final Format format, @Nullable final byte[] continuation) throws IOException {
+        final byte[] last = continuation == null ? EMPTY_CHUNK : continuationChunks(format, continuation);
+        write(last, 0, last.length);
 
-            server.incRequestsProcessed();
+        server.incRequestsProcessed();
 
-            if ((handling = pipeline.pollFirst()) != null) {
-                if (handling == FIN) {
-                    scheduleClose();
-                } else {
-                    try {
-                        server.handleRequest(handling, this);
-                    } catch (IOException e) {
-                        log.error("Cant proces next request: " + handling, e);
-                    }
+        if ((handling = pipeline.pollFirst()) != null) {
+            if (handling == FIN) {
+                scheduleClose();
+            } else {
+                try {
+                    server.handleRequest(handling, this);
+                } catch (IOException e) {
+                    log.error("Cant proces next request: " + handling, e);
                 }
             }
         }
@@ -4,6 +4,7 @@ import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.Set;
 
 @ThreadSafe
@@ -20,6 +21,19 @@ public interface Topology<T> {
     @NotNull
     Set<T> all();
 
+    /**
+     * Get all the nodes in the order addressed by the replica indices.
+     */
+    @NotNull
+    List<T> nodes();
+
     @NotNull
     String[] replicas(int count, ByteBuffer id);
+
+    /**
+     * Fill the indices in {@link #nodes()} of the replicas for the key without allocation.
+     *
+     * @return amount of indices filled
+     */
+    int replicas(int count, @NotNull ByteBuffer id, @NotNull int[] indices);
 }
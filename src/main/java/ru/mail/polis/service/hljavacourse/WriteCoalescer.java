@@ -0,0 +1,142 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.TimestampRecord;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the writes to one peer arriving within a small window into a single batch call.
+ * Every write carries the record with the timestamp given by the coordinator,
+ * so the writes of the same key in one batch don't share the timestamp of the batch.
+ * Every write gets its own future completed from the per-key acks of the batch.
+ */
+final class WriteCoalescer {
+    static final byte ACK = 1;
+
+    private final ReplicaChannel channel;
+    private final ScheduledExecutorService scheduler;
+    private final int maxWrites;
+    private final int maxBytes;
+    private final long windowMicros;
+
+    private List<Write> pending;
+    private int pendingBytes;
+
+    private static final class Write {
+        final ByteBuffer key;
+        final TimestampRecord record;
+        final ByteBuffer bytes;
+        final CompletableFuture<HttpResponse<byte[]>> future = new CompletableFuture<>();
+
+        Write(@NotNull final ByteBuffer key, @NotNull final TimestampRecord record) {
+            this.key = key;
+            this.record = record;
+            this.bytes = ByteBuffer.wrap(record.toBytes());
+        }
+
+        int size() {
+            return key.remaining() + bytes.remaining();
+        }
+    }
+
+    /**
+     * Create the write coalescer for the peer.
+     *
+     * @param channel to send the batches to
+     * @param scheduler to flush the batches when the window is over
+     * @param maxWrites to specify the amount of writes flushed immediately
+     * @param maxBytes to specify the size of writes flushed immediately
+     * @param windowMicros to specify how long the first write of a batch may wait
+     */
+    WriteCoalescer(@NotNull final ReplicaChannel channel, @NotNull final ScheduledExecutorService scheduler,
+                   final int maxWrites, final int maxBytes, final long windowMicros) {
+        this.channel = channel;
+        this.scheduler = scheduler;
+        this.maxWrites = maxWrites;
+        this.maxBytes = maxBytes;
+        this.windowMicros = windowMicros;
+        this.pending = new ArrayList<>(maxWrites);
+    }
+
+    /**
+     * Enqueue the write of the record.
+     *
+     * @param key to write
+     * @param record to write as it is, either a value or a tombstone
+     * @return future completed with {@code 201} for a value or {@code 202} for a tombstone once the peer acks it
+     */
+    CompletableFuture<HttpResponse<byte[]>> write(@NotNull final ByteBuffer key,
+                                                  @NotNull final TimestampRecord record) {
+        final Write write = new Write(key, record);
+        List<Write> ready = null;
+        synchronized (this) {
+            pending.add(write);
+            pendingBytes += write.size();
+            if (pending.size() >= maxWrites || pendingBytes >= maxBytes) {
+                ready = drain();
+            } else if (pending.size() == 1) {
+                scheduler.schedule(this::flush, windowMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return write.future;
+    }
+
+    private void flush() {
+        final List<Write> ready;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            ready = drain();
+        }
+        send(ready);
+    }
+
+    private List<Write> drain() {
+        final List<Write> ready = pending;
+        pending = new ArrayList<>(maxWrites);
+        pendingBytes = 0;
+        return ready;
+    }
+
+    private void send(@NotNull final List<Write> writes) {
+        final List<ByteBuffer> keys = new ArrayList<>(writes.size());
+        final List<ByteBuffer> records = new ArrayList<>(writes.size());
+        for (final Write write : writes) {
+            keys.add(write.key);
+            records.add(write.bytes);
+        }
+        final byte[] batch = BatchCodec.encodeValues(keys, records);
+        channel.call(ReplicaRpc.WRITES, batch).whenComplete((acks, exception) -> {
+            if (exception != null) {
+                for (final Write write : writes) {
+                    write.future.completeExceptionally(exception);
+                }
+                return;
+            }
+            for (int i = 0; i < writes.size(); i++) {
+                final Write write = writes.get(i);
+                final boolean acked = acks.length == writes.size() && acks[i] == ACK;
+                final int status;
+                if (!acked) {
+                    status = 500;
+                } else if (write.record.isDeleted()) {
+                    status = 202;
+                } else {
+                    status = 201;
+                }
+                write.future.complete(new HttpResponseClusterImpl().setStatusCode(status));
+            }
+        });
+    }
+}
@@ -17,7 +17,9 @@
 package ru.mail.polis;
 
 import org.jetbrains.annotations.NotNull;
+import ru.mail.polis.dao.DAORocksDB;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -77,6 +79,52 @@ abstract public class TestBase {
         return randomBuffer(VALUE_LENGTH);
     }
 
+    /**
+     * Get the key of the index, the keys are ordered the same way as the non-negative indices.
+     *
+     * @param i to specify the index
+     * @return key of {@link Integer#BYTES} bytes
+     */
+    @NotNull
+    protected static ByteBuffer key(final int i) {
+        final ByteBuffer key = ByteBuffer.allocate(Integer.BYTES);
+        key.putInt(i);
+        key.rewind();
+        return key;
+    }
+
+    /**
+     * Create the subdirectory to keep several storages in one temporary directory.
+     *
+     * @param parent to specify the parent directory
+     * @param name to specify the name of the subdirectory
+     * @return created subdirectory
+     * @throws IOException if the subdirectory can't be created
+     */
+    @NotNull
+    protected static File directory(@NotNull final File parent, @NotNull final String name) throws IOException {
+        final File directory = new File(parent, name);
+        if (!directory.mkdir()) {
+            throw new IOException("Can't create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Delete the directory of the storage along with the hints and the digests kept next to it.
+     *
+     * @param data to specify the directory of the storage
+     * @throws IOException if the files can't be deleted
+     */
+    protected static void deleteStorage(@NotNull final File data) throws IOException {
+        Files.recursiveDelete(data);
+        for (final File sibling : new File[]{DAORocksDB.hintsDirectory(data), DAORocksDB.digestsDirectory(data)}) {
+            if (sibling.exists()) {
+                Files.recursiveDelete(sibling);
+            }
+        }
+    }
+
     @NotNull
     protected static ByteBuffer join(
             @NotNull final ByteBuffer left,
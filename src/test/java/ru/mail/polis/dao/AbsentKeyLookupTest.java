@@ -0,0 +1,88 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.TickerType;
+
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Absent key lookups in {@link DAO} with and without bloom filters and with the partitioned index.
+ * The RocksDB statistics count the data blocks read, so the effect of the filters is checked without timing.
+ */
+class AbsentKeyLookupTest extends TestBase {
+    private static final int KEYS = 100_000;
+    private static final int LOOKUPS = 10_000;
+
+    @Test
+    void bloomFiltersSkipDataBlocks(@TempDir File data) throws IOException {
+        final StorageConfig plain = StorageConfig.builder().bloomBitsPerKey(0).statistics(true).build();
+        try (final DAORocksDB dao = fill(directory(data, "plain"), plain)) {
+            final long useful = dao.getTickerCount(TickerType.BLOOM_FILTER_USEFUL);
+            final long reads = dataBlockReads(dao);
+            lookupAbsent(dao);
+            assertEquals(useful, dao.getTickerCount(TickerType.BLOOM_FILTER_USEFUL));
+            assertTrue(dataBlockReads(dao) - reads >= LOOKUPS);
+        }
+
+        final StorageConfig bloom = StorageConfig.builder().statistics(true).build();
+        try (final DAORocksDB dao = fill(directory(data, "bloom"), bloom)) {
+            final long useful = dao.getTickerCount(TickerType.BLOOM_FILTER_USEFUL);
+            final long reads = dataBlockReads(dao);
+            lookupAbsent(dao);
+            // 10 bits per key give about 1% of false positives
+            assertTrue(dao.getTickerCount(TickerType.BLOOM_FILTER_USEFUL) - useful >= LOOKUPS * 9 / 10);
+            assertTrue(dataBlockReads(dao) - reads <= LOOKUPS / 10);
+        }
+    }
+
+    @Test
+    void presentKeysWithPartitionedIndex(@TempDir File data) throws IOException {
+        final StorageConfig config = StorageConfig.builder().partitionedIndex(true).build();
+        try (final DAORocksDB dao = fill(data, config)) {
+            lookupAbsent(dao);
+            assertTrue(dao.getProperty("rocksdb.aggregated-table-properties").contains("# index partitions="));
+            for (int i = 0; i < KEYS; i += KEYS / 100) {
+                assertTrue(dao.get(key(2 * i)).hasRemaining());
+            }
+        }
+    }
+
+    /**
+     * Open the storage and fill it with the even keys compacted into the tables.
+     */
+    @NotNull
+    private static DAORocksDB fill(@NotNull final File data, @NotNull final StorageConfig config) throws IOException {
+        final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config);
+        for (int i = 0; i < KEYS; i++) {
+            dao.upsert(key(2 * i), key(2 * i));
+        }
+        dao.compact();
+        return dao;
+    }
+
+    /**
+     * Look up the odd keys, they fall between the present ones, so the index can't rule them out.
+     */
+    private static void lookupAbsent(@NotNull final DAO dao) {
+        for (int i = 0; i < LOOKUPS; i++) {
+            final ByteBuffer absent = key(2 * i + 1);
+            assertThrows(NoSuchElementException.class, () -> dao.get(absent));
+        }
+    }
+
+    private static long dataBlockReads(@NotNull final DAORocksDB dao) {
+        return dao.getTickerCount(TickerType.BLOCK_CACHE_DATA_HIT)
+                + dao.getTickerCount(TickerType.BLOCK_CACHE_DATA_MISS);
+    }
+}
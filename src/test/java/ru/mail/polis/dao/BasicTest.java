@@ -143,6 +143,38 @@ class BasicTest extends TestBase {
         }
     }
 
+    @Test
+    void descendingScan(@TempDir File data) throws IOException {
+        try (DAO dao = DAOFactory.create(data)) {
+            // Generate and insert data
+            final int count = 10;
+            final NavigableMap<ByteBuffer, ByteBuffer> map = new TreeMap<>();
+            for (int i = 0; i < count; i++) {
+                final ByteBuffer key = randomKeyBuffer();
+                final ByteBuffer value = randomValueBuffer();
+                dao.upsert(key, value);
+                assertNull(map.put(key, value));
+            }
+
+            // Check the data
+            final ByteBuffer from = Iterators.get(map.keySet().iterator(), count / 4);
+            final ByteBuffer to = Iterators.get(map.keySet().iterator(), count * 3 / 4);
+            final Iterator<Map.Entry<ByteBuffer, ByteBuffer>> expectedIter =
+                    map.subMap(from, true, to, false).descendingMap().entrySet().iterator();
+            final Iterator<Record> actualIter = dao.descendingRange(from, to);
+            while (expectedIter.hasNext()) {
+                final Map.Entry<ByteBuffer, ByteBuffer> expected = expectedIter.next();
+                final Record actual = actualIter.next();
+                assertEquals(expected.getKey(), actual.getKey());
+                assertEquals(expected.getValue(), actual.getValue());
+            }
+            assertFalse(actualIter.hasNext());
+
+            final Iterator<Record> tailIter = dao.descendingRange(map.firstKey(), null);
+            assertEquals(map.lastKey(), tailIter.next().getKey());
+        }
+    }
+
     @Test
     void rightScan(@TempDir File data) throws IOException {
         try (DAO dao = DAOFactory.create(data)) {
@@ -0,0 +1,137 @@
+package ru.mail.polis.dao;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for batch operations of {@link DAO}.
+ */
+class BatchTest extends TestBase {
+    @Test
+    void upsertAllThenGetAll(@TempDir File data) throws IOException {
+        final int count = 100;
+        final List<Record> records = new ArrayList<>(count);
+        final List<ByteBuffer> keys = new ArrayList<>(count + 1);
+        for (int i = 0; i < count; i++) {
+            final Record record = Record.of(randomKeyBuffer(), randomValueBuffer());
+            records.add(record);
+            keys.add(record.getKey());
+        }
+        final ByteBuffer absent = randomKeyBuffer();
+        keys.add(absent);
+
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsertAll(records);
+
+            final List<ByteBuffer> values = dao.getAll(keys);
+            assertEquals(keys.size(), values.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(records.get(i).getValue(), values.get(i));
+                assertEquals(records.get(i).getValue(), dao.get(records.get(i).getKey()));
+            }
+            assertNull(values.get(count));
+        }
+    }
+
+    @Test
+    void upsertAllOverwrites(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        try (DAO dao = DAOFactory.create(data)) {
+            dao.upsert(key, randomValueBuffer());
+            dao.upsertAll(List.of(Record.of(key, value)));
+            assertEquals(value, dao.get(key));
+        }
+    }
+
+    @Test
+    void writeRecordsWithTimestampKeepsTimestamps(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer value = randomValueBuffer();
+        final long timestamp = System.currentTimeMillis();
+        try (DAORocksDB dao = (DAORocksDB) DAOFactory.create(data)) {
+            dao.writeRecordsWithTimestamp(List.of(key, key), List.of(
+                    TimestampRecord.fromValue(value, timestamp),
+                    TimestampRecord.tombstone(timestamp + 1)));
+            final TimestampRecord removed = dao.getRecordWithTimestamp(key);
+            assertTrue(removed.isDeleted());
+            assertEquals(timestamp + 1, removed.getTimestamp());
+
+            // The record already stored isn't merged again, a later one replaces it
+            assertFalse(dao.mergeRecordWithTimestamp(key, TimestampRecord.tombstone(timestamp + 1)));
+            assertTrue(dao.mergeRecordWithTimestamp(key, TimestampRecord.fromValue(value, timestamp + 2)));
+            assertEquals(value, dao.getRecordWithTimestamp(key).getValue());
+        }
+    }
+
+    @Test
+    void outOfOrderWritesKeepLatest(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer older = randomValueBuffer();
+        final ByteBuffer newer = randomValueBuffer();
+        final long timestamp = System.currentTimeMillis();
+        try (DAORocksDB dao = (DAORocksDB) DAOFactory.create(data)) {
+            // The later write arrives first through another coordinator
+            dao.writeRecordWithTimestamp(key, TimestampRecord.fromValue(newer, timestamp + 1));
+            dao.writeRecordWithTimestamp(key, TimestampRecord.fromValue(older, timestamp));
+            assertLatest(dao, key, newer, timestamp + 1);
+
+            dao.writeRecordsWithTimestamp(List.of(key), List.of(TimestampRecord.fromValue(older, timestamp)));
+            assertLatest(dao, key, newer, timestamp + 1);
+
+            // The batch keeps the latest record of the key whatever the order
+            final ByteBuffer other = randomKeyBuffer();
+            dao.writeRecordsWithTimestamp(List.of(other, other), List.of(
+                    TimestampRecord.fromValue(newer, timestamp + 1),
+                    TimestampRecord.fromValue(older, timestamp)));
+            assertLatest(dao, other, newer, timestamp + 1);
+        }
+    }
+
+    @Test
+    void writesWithinMillisecondKeepLast(@TempDir File data) throws IOException {
+        final ByteBuffer key = randomKeyBuffer();
+        final ByteBuffer first = randomValueBuffer();
+        final ByteBuffer second = randomValueBuffer();
+        final long timestamp = System.currentTimeMillis();
+        try (DAORocksDB dao = (DAORocksDB) DAOFactory.create(data)) {
+            dao.writeRecordWithTimestamp(key, TimestampRecord.fromValue(first, timestamp));
+            dao.writeRecordWithTimestamp(key, TimestampRecord.fromValue(second, timestamp));
+            assertLatest(dao, key, second, timestamp);
+
+            dao.writeRecordsWithTimestamp(List.of(key, key), List.of(
+                    TimestampRecord.fromValue(second, timestamp),
+                    TimestampRecord.fromValue(first, timestamp)));
+            assertLatest(dao, key, first, timestamp);
+        }
+    }
+
+    private static void assertLatest(@NotNull final DAORocksDB dao, @NotNull final ByteBuffer key,
+                                     @NotNull final ByteBuffer value, final long timestamp) throws IOException {
+        final TimestampRecord stored = TimestampRecord.fromBytes(dao.get(key).array());
+        assertEquals(timestamp, stored.getTimestamp());
+        assertEquals(value, stored.getValue());
+
+        final ReadCache cache = dao.getReadCache();
+        assertNotNull(cache);
+        final TimestampRecord cached = cache.get(key);
+        assertNotNull(cached);
+        assertEquals(timestamp, cached.getTimestamp());
+        assertEquals(value, cached.getValue());
+
+        // The reader sees the same record once it is evicted
+        cache.invalidate(key);
+        assertEquals(value, dao.getRecordWithTimestamp(key).getValue());
+    }
+}
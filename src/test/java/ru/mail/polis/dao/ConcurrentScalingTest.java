@@ -0,0 +1,95 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Mixed get/upsert benchmark for {@link DAO} running the same load from 1 to N threads.
+ * The throughput of every thread count is reported, not asserted: it depends on the runner too much.
+ * Run it with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class ConcurrentScalingTest extends TestBase {
+    private static final int KEYS = 10_000;
+    private static final int OPS_PER_THREAD = 50_000;
+
+    @Test
+    void mixedGetUpsertScaling(@TempDir File data) throws IOException, InterruptedException {
+        final int maxThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        try (final DAO dao = DAOFactory.create(data)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsert(key(i), value(i));
+            }
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                run(dao, threads);
+            }
+        }
+    }
+
+    private static void run(@NotNull final DAO dao, final int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger errors = new AtomicInteger();
+        final List<Thread> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final Thread worker = new Thread(() -> {
+                final ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                    for (int op = 0; op < OPS_PER_THREAD; op++) {
+                        final int i = random.nextInt(KEYS);
+                        if (random.nextBoolean()) {
+                            dao.upsert(key(i), value(i));
+                        } else if (!dao.get(key(i)).equals(value(i))) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(0, errors.get());
+        final double opsPerSecond = (double) threads * OPS_PER_THREAD * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        System.out.printf("%d threads: %.0f ops/s%n", threads, opsPerSecond);
+    }
+
+    @NotNull
+    private static ByteBuffer value(final int i) {
+        final ByteBuffer value = ByteBuffer.allocate(Long.BYTES);
+        value.putLong(~i);
+        value.rewind();
+        return value;
+    }
+}
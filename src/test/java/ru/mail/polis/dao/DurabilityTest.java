@@ -0,0 +1,224 @@
+package ru.mail.polis.dao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Acknowledged PUTs to {@link DAO} in the durability modes.
+ * The durability is checked by killing the writing process, so neither close nor the flush on close save the writes.
+ */
+class DurabilityTest extends TestBase {
+    private static final int THREADS = 8;
+    private static final int PUTS_PER_THREAD = 500;
+    private static final int ACKED_BEFORE_KILL = 200;
+    private static final int MAX_WRITES = 1_000_000;
+
+    @Test
+    void groupCommitSharesSyncs(@TempDir File data) throws IOException, InterruptedException {
+        final StorageConfig config = config(StorageConfig.Durability.GROUP_COMMIT);
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config)) {
+            write(dao);
+
+            // Concurrent writers share a WAL sync instead of queueing for their own ones
+            final long syncs = dao.getWalSyncCount();
+            assertTrue(syncs > 0, "No WAL syncs");
+            assertTrue(syncs < THREADS * PUTS_PER_THREAD, "Every write synced the WAL on its own: " + syncs);
+        }
+    }
+
+    @Test
+    void replicaWriteAwaitsSync(@TempDir File data) throws IOException {
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data,
+                config(StorageConfig.Durability.GROUP_COMMIT))) {
+            // The record of the coordinator is acked only once the WAL is synced
+            dao.writeRecordWithTimestamp(key(1), TimestampRecord.fromValue(key(1), System.currentTimeMillis()));
+            assertTrue(dao.getWalSyncCount() > 0, "The write didn't await the WAL sync");
+        }
+    }
+
+    @Test
+    void awaitAfterCloseSyncsInline(@TempDir File data) throws IOException, RocksDBException {
+        try (final Options options = new Options().setCreateIfMissing(true);
+             final RocksDB db = RocksDB.open(options, data.getAbsolutePath());
+             final WriteOptions wOptions = new WriteOptions()) {
+            final GroupCommit groupCommit = new GroupCommit(db, 1000);
+            groupCommit.close();
+
+            // The stopped syncer must not leave the writer waiting forever
+            db.put(wOptions, new byte[]{1}, new byte[]{1});
+            assertTimeoutPreemptively(Duration.ofSeconds(10), groupCommit::await);
+            assertEquals(0, groupCommit.getSyncCount());
+        }
+    }
+
+    @Test
+    void syncSurvivesKill(@TempDir File data) throws IOException, InterruptedException {
+        final List<Integer> acked = writeUntilKilled(data, StorageConfig.Durability.SYNC);
+        assertEquals(0, missing(data, acked));
+    }
+
+    @Test
+    void groupCommitSurvivesKill(@TempDir File data) throws IOException, InterruptedException {
+        final List<Integer> acked = writeUntilKilled(data, StorageConfig.Durability.GROUP_COMMIT);
+        assertEquals(0, missing(data, acked));
+    }
+
+    @Test
+    void noneLosesWritesOnKill(@TempDir File data) throws IOException, InterruptedException {
+        // Without the WAL the memtable dies with the process, so the check above does tell the modes apart
+        final List<Integer> acked = writeUntilKilled(data, StorageConfig.Durability.NONE);
+        assertTrue(missing(data, acked) > 0);
+    }
+
+    @Test
+    @Tag("benchmark")
+    void putThroughput(@TempDir File data) throws IOException, InterruptedException {
+        for (final StorageConfig.Durability durability : StorageConfig.Durability.values()) {
+            final File directory = directory(data, durability.name());
+            try (final DAO dao = DAOFactory.create(directory, config(durability))) {
+                final long elapsedNanos = write(dao);
+                final double putsPerSecond = (double) THREADS * PUTS_PER_THREAD
+                        * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+                System.out.printf("%s: %.0f puts/s%n", durability, putsPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Run the {@link Writer} in another JVM and kill it while it writes.
+     *
+     * @return keys acknowledged by the writer before it was killed
+     */
+    @NotNull
+    private static List<Integer> writeUntilKilled(@NotNull final File data,
+                                                  @NotNull final StorageConfig.Durability durability)
+            throws IOException, InterruptedException {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final Process process = new ProcessBuilder(
+                java, "-cp", System.getProperty("java.class.path"),
+                Writer.class.getName(), data.getAbsolutePath(), durability.name())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        final List<Integer> acked = new ArrayList<>();
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            // The acks printed before the kill are read till the end of the stream
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                acked.add(Integer.parseInt(line));
+                if (acked.size() == ACKED_BEFORE_KILL) {
+                    process.destroyForcibly();
+                }
+            }
+        }
+        assertTrue(process.waitFor() != 0, "The writer was not killed");
+        assertTrue(acked.size() >= ACKED_BEFORE_KILL, "The writer failed before the kill");
+        return acked;
+    }
+
+    private static int missing(@NotNull final File data, @NotNull final List<Integer> acked) throws IOException {
+        int missing = 0;
+        try (final DAO dao = DAOFactory.create(data)) {
+            for (final int i : acked) {
+                try {
+                    assertEquals(key(i), dao.get(key(i)));
+                } catch (NoSuchElementException e) {
+                    missing++;
+                }
+            }
+        }
+        return missing;
+    }
+
+    @NotNull
+    private static StorageConfig config(@NotNull final StorageConfig.Durability durability) {
+        return StorageConfig.builder()
+                .durability(durability)
+                .groupCommitWindowMicros(1000)
+                .build();
+    }
+
+    /**
+     * Write the keys from the concurrent threads.
+     *
+     * @return time of the writes in nanoseconds
+     */
+    private static long write(@NotNull final DAO dao) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger errors = new AtomicInteger();
+        final List<Thread> workers = new ArrayList<>(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t * PUTS_PER_THREAD;
+            final Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; i < first + PUTS_PER_THREAD; i++) {
+                        dao.upsert(key(i), key(i));
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        assertEquals(0, errors.get());
+        return elapsedNanos;
+    }
+
+    /**
+     * Writes the keys one by one and prints every acknowledged one, it never closes the storage.
+     */
+    static final class Writer {
+        private Writer() {
+            // Started by main
+        }
+
+        public static void main(final String[] args) throws IOException {
+            final StorageConfig config = config(StorageConfig.Durability.valueOf(args[1]));
+            final DAO dao = DAOFactory.create(new File(args[0]), config);
+            for (int i = 0; i < MAX_WRITES; i++) {
+                dao.upsert(key(i), key(i));
+                System.out.println(i);
+                System.out.flush();
+            }
+            // Not killed in time, the exit code tells the test so
+            Runtime.getRuntime().halt(0);
+        }
+    }
+}
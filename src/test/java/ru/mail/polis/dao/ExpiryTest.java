@@ -0,0 +1,126 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the records with TTL and the purge of the expired ones and the tombstones.
+ */
+class ExpiryTest extends TestBase {
+    @Test
+    void expiringRecordRoundTrip() throws IOException {
+        final ByteBuffer value = randomValueBuffer();
+        final TimestampRecord record = TimestampRecord.fromValue(value, 1000L, 2000L);
+        final TimestampRecord decoded = TimestampRecord.fromBytes(record.toBytes());
+        assertTrue(decoded.isValue());
+        assertEquals(1000L, decoded.getTimestamp());
+        assertEquals(2000L, decoded.getExpiresAt());
+        assertEquals(value, decoded.getValue());
+        assertFalse(decoded.isExpired(1999L));
+        assertTrue(decoded.isExpired(2000L));
+    }
+
+    @Test
+    void recordWithoutTtlNeverExpires() {
+        final TimestampRecord record = TimestampRecord.fromValue(randomValueBuffer(), 1000L, TimestampRecord.NEVER);
+        final TimestampRecord decoded = TimestampRecord.fromBytes(record.toBytes());
+        assertEquals(TimestampRecord.NEVER, decoded.getExpiresAt());
+        assertFalse(decoded.isExpired(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    void purgeExpired(@TempDir File data) throws IOException {
+        final StorageConfig config = StorageConfig.builder().gcGraceSeconds(0).build();
+        final ByteBuffer expired = randomKeyBuffer();
+        final ByteBuffer alive = randomKeyBuffer();
+        final ByteBuffer permanent = randomKeyBuffer();
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config)) {
+            final long now = System.currentTimeMillis();
+            dao.upsertRecordWithTimestamp(expired, randomValueBuffer(), now - 1);
+            dao.upsertRecordWithTimestamp(alive, randomValueBuffer(), now + 3_600_000L);
+            dao.upsertRecordWithTimestamp(permanent, randomValueBuffer());
+            // The purge must not leave the expired record in the read cache
+            assertTrue(dao.getRecordWithTimestamp(expired).isExpired(now));
+
+            assertEquals(1, dao.purge());
+            assertEquals(1, dao.getPurgedExpiredCount());
+            assertTrue(dao.getRecordWithTimestamp(expired).isEmpty());
+            assertTrue(dao.getRecordWithTimestamp(alive).isValue());
+            assertTrue(dao.getRecordWithTimestamp(permanent).isValue());
+        }
+    }
+
+    @Test
+    void purgeTombstones(@TempDir File data) throws IOException {
+        final StorageConfig config = StorageConfig.builder().gcGraceSeconds(0).build();
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config)) {
+            for (int i = 0; i < 100; i++) {
+                dao.upsertRecordWithTimestamp(key(i), key(i));
+            }
+            for (int i = 10; i < 100; i++) {
+                dao.removeRecordWithTimestamp(key(i));
+            }
+
+            assertEquals(90, dao.purge());
+            assertEquals(90, dao.getPurgedTombstoneCount());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i < 10, dao.getRecordWithTimestamp(key(i)).isValue());
+            }
+            // The scan doesn't step over the purged tombstones any more
+            int records = 0;
+            for (final Iterator<Record> iterator = dao.iterator(key(0)); iterator.hasNext(); iterator.next()) {
+                records++;
+            }
+            assertEquals(10, records);
+        }
+    }
+
+    @Test
+    void purgeKeepsExpiredWithinGrace(@TempDir File data) throws IOException {
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data)) {
+            final ByteBuffer key = randomKeyBuffer();
+            dao.upsertRecordWithTimestamp(key, randomValueBuffer(), System.currentTimeMillis() - 1);
+
+            assertEquals(0, dao.purge());
+            assertTrue(dao.getRecordWithTimestamp(key).isExpired(System.currentTimeMillis()));
+        }
+    }
+
+    @Test
+    void purgeFollowsWrites(@TempDir File data) throws IOException, InterruptedException {
+        final StorageConfig config = StorageConfig.builder().gcGraceSeconds(0).build();
+        final ByteBuffer expiring = randomKeyBuffer();
+        final ByteBuffer removed = randomKeyBuffer();
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config)) {
+            // The first purge scans all the ranges, the next ones scan the ranges written since
+            assertEquals(0, dao.purge());
+            final long now = System.currentTimeMillis();
+            dao.upsertRecordWithTimestamp(expiring, randomValueBuffer(), now + 100);
+            dao.removeRecordWithTimestamp(removed);
+
+            assertEquals(1, dao.purge());
+            assertTrue(dao.getRecordWithTimestamp(removed).isEmpty());
+            assertTrue(dao.getRecordWithTimestamp(expiring).isValue());
+
+            // The value is left scheduled until it expires
+            final long deadline = now + 10_000;
+            while (dao.purge() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, dao.getPurgedExpiredCount());
+            assertTrue(dao.getRecordWithTimestamp(expiring).isEmpty());
+        }
+    }
+}
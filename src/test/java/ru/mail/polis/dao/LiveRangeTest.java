@@ -0,0 +1,88 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks the live records with timestamp merged from the replica ranges and the limited ranges.
+ */
+class LiveRangeTest extends TestBase {
+    @Test
+    void mergesReplicas(@TempDir File first, @TempDir File second) throws IOException {
+        try (final DAORocksDB stale = (DAORocksDB) DAOFactory.create(first);
+             final DAORocksDB fresh = (DAORocksDB) DAOFactory.create(second)) {
+            final long now = System.currentTimeMillis();
+            stale.writeRecordsWithTimestamp(List.of(bytes("a"), bytes("b"), bytes("d")), List.of(
+                    TimestampRecord.fromValue(bytes("old"), now),
+                    TimestampRecord.fromValue(bytes("2"), now),
+                    TimestampRecord.fromValue(bytes("4"), now)));
+            fresh.writeRecordsWithTimestamp(List.of(bytes("a"), bytes("b"), bytes("c")), List.of(
+                    TimestampRecord.fromValue(bytes("new"), now + 1),
+                    TimestampRecord.tombstone(now + 1),
+                    TimestampRecord.fromValue(bytes("3"), now + 1)));
+
+            final RecordCursor merged = new MergedRecordCursor(
+                    List.of(stale.recordRange(bytes(""), null), fresh.recordRange(bytes(""), null)),
+                    System.currentTimeMillis(), false);
+            assertEquals(List.of("a=new", "c=3", "d=4"), collect(merged));
+
+            final RecordCursor descending = new MergedRecordCursor(
+                    List.of(stale.recordRange(bytes(""), null, true), fresh.recordRange(bytes(""), null, true)),
+                    System.currentTimeMillis(), true);
+            assertEquals(List.of("d=4", "c=3", "a=new"), collect(descending));
+        }
+    }
+
+    @Test
+    void limitsAndContinues(@TempDir File data) throws IOException {
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data)) {
+            for (final String key : List.of("a", "ab", "abc", "ac", "b")) {
+                dao.upsert(bytes(key), bytes(key.toUpperCase()));
+            }
+
+            final RecordCursor page = RecordCursor.limit(dao.recordRange(bytes("a"), bytes("b")), 2);
+            assertEquals(List.of("a=A", "ab=AB"), collect(page));
+            assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), page.continuation());
+
+            final RecordCursor last = RecordCursor.limit(dao.recordRange(bytes("abc"), bytes("b")), 2);
+            assertEquals(List.of("abc=ABC", "ac=AC"), collect(last));
+            assertNull(last.continuation());
+
+            final RecordCursor tail = RecordCursor.limit(dao.recordRange(bytes("a"), bytes("ac"), true), 2);
+            assertEquals(List.of("abc=ABC", "ab=AB"), collect(tail));
+            assertArrayEquals("a".getBytes(StandardCharsets.UTF_8), tail.continuation());
+        }
+    }
+
+    @NotNull
+    private static List<String> collect(@NotNull final RecordCursor cursor) throws IOException {
+        final List<String> result = new ArrayList<>();
+        try (cursor) {
+            while (cursor.advance()) {
+                result.add(new String(cursor.key(), StandardCharsets.UTF_8) + '='
+                        + new String(cursor.value(), cursor.valueOffset(), cursor.valueLength(),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    private static ByteBuffer bytes(@NotNull final String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
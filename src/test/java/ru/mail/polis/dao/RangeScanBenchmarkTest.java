@@ -0,0 +1,104 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Large range scan of {@link DAORocksDB} over the arrays read by JNI compared with the wrapped records.
+ * The throughput is reported, not asserted. Run it with {@code ./gradlew benchmark}.
+ */
+class RangeScanBenchmarkTest extends TestBase {
+    private static final int KEYS = 100_000;
+    private static final int VALUE_SIZE = 512;
+    private static final long BYTES = (long) KEYS * (Integer.BYTES + VALUE_SIZE);
+    private static final int ROUNDS = 5;
+
+    @Test
+    void cursorYieldsRecords(@TempDir File data) throws IOException {
+        try (final DAORocksDB dao = fill(data, 1_000)) {
+            // The cursor over the arrays read by JNI yields the same records as the wrapped ones
+            final Iterator<Record> records = dao.range(key(0), null);
+            try (RecordCursor cursor = dao.recordRange(key(0), null)) {
+                while (cursor.advance()) {
+                    assertTrue(records.hasNext());
+                    final Record record = records.next();
+                    assertEquals(record.getKey(), ByteBuffer.wrap(cursor.key()));
+                    assertEquals(record.getValue(),
+                            ByteBuffer.wrap(cursor.value(), cursor.valueOffset(), cursor.valueLength()));
+                }
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void largeScanThroughput(@TempDir File data) throws IOException {
+        try (final DAORocksDB dao = fill(data, KEYS)) {
+            long rangeNanos = Long.MAX_VALUE;
+            long cursorNanos = Long.MAX_VALUE;
+            // The rounds alternate the paths, so both of them find the blocks cached
+            for (int round = 0; round < ROUNDS; round++) {
+                long startNanos = System.nanoTime();
+                assertEquals(BYTES, scanRange(dao));
+                rangeNanos = Math.min(rangeNanos, System.nanoTime() - startNanos);
+
+                startNanos = System.nanoTime();
+                assertEquals(BYTES, scanCursor(dao));
+                cursorNanos = Math.min(cursorNanos, System.nanoTime() - startNanos);
+            }
+            System.out.printf("range: %.1f MB/s%n", megabytesPerSecond(rangeNanos));
+            System.out.printf("recordRange: %.1f MB/s%n", megabytesPerSecond(cursorNanos));
+        }
+    }
+
+    @NotNull
+    private static DAORocksDB fill(@NotNull final File data, final int keys) throws IOException {
+        final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data);
+        final ByteBuffer value = randomBuffer(VALUE_SIZE);
+        for (int i = 0; i < keys; i++) {
+            dao.upsert(key(i), value.duplicate());
+        }
+        dao.compact();
+        return dao;
+    }
+
+    private static long scanRange(@NotNull final DAO dao) throws IOException {
+        long bytes = 0;
+        final Iterator<Record> records = dao.range(key(0), null);
+        while (records.hasNext()) {
+            final Record record = records.next();
+            bytes += record.getKey().remaining() + record.getValue().remaining();
+        }
+        return bytes;
+    }
+
+    private static long scanCursor(@NotNull final DAORocksDB dao) throws IOException {
+        long bytes = 0;
+        try (RecordCursor cursor = dao.recordRange(key(0), null)) {
+            while (cursor.advance()) {
+                bytes += cursor.key().length + cursor.valueLength();
+            }
+        }
+        return bytes;
+    }
+
+    private static double megabytesPerSecond(final long nanos) {
+        return (double) BYTES / (1024 * 1024) * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis.dao;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks that the records loaded before a write or a purge don't get into the {@link ReadCache}.
+ */
+class ReadCacheTest extends TestBase {
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @Test
+    void dropsLoadBeforeWrite() {
+        final ReadCache cache = new ReadCache(MAX_BYTES);
+        final ByteBuffer key = randomKeyBuffer();
+        final long version = cache.version(key);
+        final TimestampRecord stale = TimestampRecord.fromValue(randomValueBuffer(), 1);
+        cache.update(key, TimestampRecord.fromValue(randomValueBuffer(), 2));
+        // The written record is evicted before the load is inserted
+        cache.invalidate(key);
+
+        cache.load(key, stale, version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void dropsLoadBeforePurge() {
+        final ReadCache cache = new ReadCache(MAX_BYTES);
+        final ByteBuffer key = randomKeyBuffer();
+        final long version = cache.version(key);
+        cache.invalidate(key);
+
+        cache.load(key, TimestampRecord.tombstone(1), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    void insertsLoad() {
+        final ReadCache cache = new ReadCache(MAX_BYTES);
+        final ByteBuffer key = randomKeyBuffer();
+        final TimestampRecord loaded = TimestampRecord.fromValue(randomValueBuffer(), 1);
+
+        cache.load(key, loaded, cache.version(key));
+        assertSame(loaded, cache.get(key));
+    }
+
+    @Test
+    void keepsNewerRecord() {
+        final ReadCache cache = new ReadCache(MAX_BYTES);
+        final ByteBuffer key = randomKeyBuffer();
+        final long version = cache.version(key);
+        final TimestampRecord fresh = TimestampRecord.fromValue(randomValueBuffer(), 2);
+        cache.update(key, fresh);
+
+        cache.load(key, TimestampRecord.fromValue(randomValueBuffer(), 1), version);
+        assertSame(fresh, cache.get(key));
+    }
+}
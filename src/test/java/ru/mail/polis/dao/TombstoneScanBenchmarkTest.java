@@ -0,0 +1,76 @@
+package ru.mail.polis.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ru.mail.polis.Record;
+import ru.mail.polis.TestBase;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Range scans of {@link DAO} over the tombstone-heavy data before and after the purge.
+ * The scan time is reported, not asserted. Run it with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class TombstoneScanBenchmarkTest extends TestBase {
+    private static final int KEYS = 200_000;
+    private static final int LIVE_EVERY = 10;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void scanBeforeAndAfterPurge(@TempDir File data) throws IOException {
+        final StorageConfig config = StorageConfig.builder().gcGraceSeconds(0).build();
+        try (final DAORocksDB dao = (DAORocksDB) DAOFactory.create(data, config)) {
+            for (int i = 0; i < KEYS; i++) {
+                dao.upsertRecordWithTimestamp(key(i), key(i));
+            }
+            for (int i = 0; i < KEYS; i++) {
+                if (i % LIVE_EVERY != 0) {
+                    dao.removeRecordWithTimestamp(key(i));
+                }
+            }
+            dao.compact();
+            report("before purge", dao, KEYS);
+
+            assertEquals(KEYS - KEYS / LIVE_EVERY, dao.purge());
+            dao.compact();
+            report("after purge", dao, KEYS / LIVE_EVERY);
+        }
+    }
+
+    /**
+     * Scan all the records a few times and print the best time, the first rounds warm up the block cache.
+     */
+    private static void report(@NotNull final String name, @NotNull final DAO dao,
+                               final int expected) throws IOException {
+        long bestNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long startNanos = System.nanoTime();
+            final int records = scan(dao);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - startNanos);
+            assertEquals(expected, records);
+        }
+        final double liveRecordsPerSecond = (double) KEYS / LIVE_EVERY * TimeUnit.SECONDS.toNanos(1) / bestNanos;
+        System.out.printf("%s: %d records scanned in %.1f ms, %.0f live records/s%n",
+                name, expected, bestNanos / 1e6, liveRecordsPerSecond);
+    }
+
+    private static int scan(@NotNull final DAO dao) throws IOException {
+        int count = 0;
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        while (records.hasNext()) {
+            records.next();
+            count++;
+        }
+        return count;
+    }
+}
@@ -23,6 +23,7 @@ import one.nio.net.ConnectionString;
 import org.jetbrains.annotations.NotNull;
 import ru.mail.polis.TestBase;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
@@ -81,6 +82,26 @@ abstract class ClusterTestBase extends TestBase {
         throw new RuntimeException("Can't wait for the service");
     }
 
+    /**
+     * Get the value of the metric of the node.
+     *
+     * @param node to specify the node
+     * @param name to specify the metric name
+     * @return value of the metric
+     * @throws Exception if the metrics can't be read or there is no such metric
+     */
+    long metric(
+            final int node,
+            @NotNull final String name) throws Exception {
+        final Response response = client(node).get("/v0/metrics");
+        for (final String line : new String(response.getBody(), StandardCharsets.UTF_8).split("\n")) {
+            if (line.startsWith(name + ' ')) {
+                return Long.parseLong(line.substring(name.length() + 1));
+            }
+        }
+        throw new IllegalStateException("No metric " + name);
+    }
+
     @NotNull
     private String path(
             @NotNull final String id,
@@ -132,4 +153,20 @@ abstract class ClusterTestBase extends TestBase {
             final int from) throws Exception {
         return client(node).put(path(key, ack, from), data);
     }
+
+    Response upsertBatch(
+            final int node,
+            @NotNull final byte[] entries,
+            final int ack,
+            final int from) throws Exception {
+        return client(node).put("/v0/entities?replicas=" + ack + "/" + from, entries);
+    }
+
+    Response getBatch(
+            final int node,
+            @NotNull final byte[] keys,
+            final int ack,
+            final int from) throws Exception {
+        return client(node).post("/v0/entities?replicas=" + ack + "/" + from, keys);
+    }
 }
@@ -0,0 +1,76 @@
+package ru.mail.polis.service;
+
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+import ru.mail.polis.service.hljavacourse.ConsistentHashTopology;
+import ru.mail.polis.service.hljavacourse.Topology;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ConsistentHashTopology}.
+ */
+class ConsistentHashTopologyTest extends TestBase {
+    private static final int KEYS = 10_000;
+    private static final int VIRTUAL_NODES = 128;
+
+    @Test
+    void replicasAreDistinctAndStartWithPrimary() {
+        final Topology<String> topology = topology(3, 0);
+        for (int i = 0; i < 100; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String[] replicas = topology.replicas(3, key);
+            assertEquals(3, new HashSet<>(Arrays.asList(replicas)).size());
+            assertEquals(topology.primaryFor(key), replicas[0]);
+        }
+    }
+
+    @Test
+    void keysAreBalanced() {
+        final Topology<String> topology = topology(3, 0);
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(topology.primaryFor(randomKeyBuffer()), 1, Integer::sum);
+        }
+        for (final int count : counts.values()) {
+            assertTrue(count > KEYS / 3 / 2, "Unbalanced ring: " + counts);
+        }
+    }
+
+    @Test
+    void addingNodeRemapsFewKeys() {
+        final Topology<String> before = topology(3, 0);
+        final Topology<String> after = topology(4, 0);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer key = randomKeyBuffer();
+            final String owner = after.primaryFor(key);
+            if (!owner.equals(before.primaryFor(key))) {
+                assertEquals(node(3), owner);
+                moved++;
+            }
+        }
+        // About a quarter of the keys should move to the new node
+        assertTrue(moved < KEYS / 2, "Too many keys remapped: " + moved);
+    }
+
+    private static Topology<String> topology(final int size, final int me) {
+        final Set<String> nodes = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            nodes.add(node(i));
+        }
+        return new ConsistentHashTopology(nodes, node(me), VIRTUAL_NODES);
+    }
+
+    private static String node(final int index) {
+        return endpoint(8080 + index);
+    }
+}
@@ -68,10 +68,10 @@ class ShardingTest extends ClusterTestBase {
     void afterEach() throws IOException {
         stop(0, storage0);
         dao0.close();
-        Files.recursiveDelete(data0);
+        deleteStorage(data0);
         stop(1, storage1);
         dao1.close();
-        Files.recursiveDelete(data1);
+        deleteStorage(data1);
         endpoints = Collections.emptySet();
     }
 
@@ -67,7 +67,7 @@ class SingleNodeTest extends TestBase {
         client.close();
         storage.stop();
         dao.close();
-        Files.recursiveDelete(data);
+        deleteStorage(data);
     }
 
     private static void reset() {
@@ -241,7 +241,7 @@ class SingleNodeTest extends TestBase {
             // Remove data and recreate
             storage.stop();
             dao.close();
-            Files.recursiveDelete(data);
+            deleteStorage(data);
             java.nio.file.Files.createDirectory(data.toPath());
             dao = DAOFactory.create(data);
             port = randomPort();
@@ -29,10 +29,15 @@ import ru.mail.polis.TestBase;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -67,6 +72,36 @@ class SingleRangeTest extends TestBase {
         return (key + '\n' + value).getBytes();
     }
 
+    @NotNull
+    private static byte[] frameOf(
+            @NotNull final String key,
+            @NotNull final byte[] value) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Integer.BYTES * 2 + keyBytes.length + value.length)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putInt(value.length)
+                .put(value)
+                .array();
+    }
+
+    /**
+     * Decode the {@code <length><key><length><value>} frames as {@code key=value} strings.
+     */
+    @NotNull
+    private static List<String> decodeFrames(@NotNull final byte[] body) {
+        final ByteBuffer frames = ByteBuffer.wrap(body);
+        final List<String> records = new ArrayList<>();
+        while (frames.hasRemaining()) {
+            final byte[] key = new byte[frames.getInt()];
+            frames.get(key);
+            final byte[] value = new byte[frames.getInt()];
+            frames.get(value);
+            records.add(new String(key, StandardCharsets.UTF_8) + '=' + new String(value, StandardCharsets.UTF_8));
+        }
+        return records;
+    }
+
     @BeforeEach
     void beforeAll() throws Exception {
         port = randomPort();
@@ -83,7 +118,7 @@ class SingleRangeTest extends TestBase {
         client.close();
         storage.stop();
         dao.close();
-        Files.recursiveDelete(data);
+        deleteStorage(data);
     }
 
     private Response range(
@@ -225,4 +260,113 @@ class SingleRangeTest extends TestBase {
             assertEquals(0, response.getBody().length);
         });
     }
+
+    @Test
+    void frames() {
+        final String prefix = "frames";
+        final byte[] value1 = "value1".getBytes(StandardCharsets.UTF_8);
+        final byte[] value2 = new byte[0];
+        // Larger than the chunk buffer, so it grows for the frame
+        final byte[] value3 = randomBuffer(70_000).array();
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(201, upsert(prefix + 1, value1).getStatus());
+            assertEquals(201, upsert(prefix + 2, value2).getStatus());
+            assertEquals(201, upsert(prefix + 3, value3).getStatus());
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(frameOf(prefix + 1, value1));
+            expected.write(frameOf(prefix + 2, value2));
+            expected.write(frameOf(prefix + 3, value3));
+
+            final Response response = client.get(
+                    "/v0/entities?start=" + prefix + 1 + "&end=" + prefix + 4 + "&format=frames");
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(expected.toByteArray(), response.getBody());
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get(
+                    "/v0/entities?start=" + prefix + 2 + "&end=" + prefix + 3 + "&format=frames");
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(frameOf(prefix + 2, value2), response.getBody());
+        });
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertEquals(400, client.get("/v0/entities?start=" + prefix + "&format=unknown").getStatus());
+        });
+    }
+
+    @Test
+    void paging() {
+        final String prefix = "page";
+
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 1; i <= 5; i++) {
+                assertEquals(201, upsert(prefix + i, ("value" + i).getBytes(StandardCharsets.UTF_8)).getStatus());
+            }
+            // Right before and after the prefix
+            assertEquals(201, upsert("pagd", new byte[]{1}).getStatus());
+            assertEquals(201, upsert("pagf", new byte[]{1}).getStatus());
+        });
+
+        // The page cut by the limit ends with the continuation token under the empty key
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final List<String> expected = List.of(
+                    prefix + 1 + "=value1", prefix + 2 + "=value2",
+                    prefix + 3 + "=value3", prefix + 4 + "=value4",
+                    prefix + 5 + "=value5");
+            final List<String> records = new ArrayList<>();
+            String token = "";
+            do {
+                final Response response = client.get(
+                        "/v0/entities?prefix=" + prefix + "&limit=2&format=frames&token=" + token);
+                assertEquals(200, response.getStatus());
+                final List<String> page = decodeFrames(response.getBody());
+                final String last = page.get(page.size() - 1);
+                if (last.startsWith("=")) {
+                    token = last.substring(1);
+                    page.remove(page.size() - 1);
+                    assertEquals(2, page.size());
+                } else {
+                    token = "";
+                }
+                records.addAll(page);
+            } while (!token.isEmpty());
+            assertEquals(expected, records);
+        });
+
+        // The lines carry the token the same way
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get("/v0/entities?prefix=" + prefix + "&limit=1");
+            assertEquals(200, response.getStatus());
+            final String body = new String(response.getBody(), StandardCharsets.UTF_8);
+            assertTrue(body.startsWith(prefix + 1 + "\nvalue1\n"));
+            final String token = body.substring((prefix + 1 + "\nvalue1\n").length());
+            final Response next = client.get("/v0/entities?prefix=" + prefix + "&limit=1&token=" + token);
+            assertEquals(200, next.getStatus());
+            assertTrue(new String(next.getBody(), StandardCharsets.UTF_8).startsWith(prefix + 2 + "\nvalue2\n"));
+        });
+
+        // The prefix ends before the next value of its last byte
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response response = client.get("/v0/entities?prefix=" + prefix + "&end=z&format=frames");
+            assertEquals(200, response.getStatus());
+            assertEquals(5, decodeFrames(response.getBody()).size());
+        });
+
+        // The prefix is intersected with the start and the end
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final Response inside = client.get(
+                    "/v0/entities?prefix=" + prefix + "&start=" + prefix + 2 + "&end=" + prefix + 4 + "&format=frames");
+            assertEquals(200, inside.getStatus());
+            assertEquals(List.of(prefix + 2 + "=value2", prefix + 3 + "=value3"), decodeFrames(inside.getBody()));
+
+            final Response below = client.get("/v0/entities?prefix=" + prefix + "&start=a&format=frames");
+            assertEquals(200, below.getStatus());
+            assertEquals(prefix + 1 + "=value1", decodeFrames(below.getBody()).get(0));
+        });
+    }
 }
@@ -69,7 +69,7 @@ class StartStopTest extends TestBase {
         client.close();
         kvService.stop();
         dao.close();
-        Files.recursiveDelete(data);
+        deleteStorage(data);
     }
 
     private int status() throws Exception {
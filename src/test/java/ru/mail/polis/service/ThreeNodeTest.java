@@ -17,15 +17,22 @@
 package ru.mail.polis.service;
 
 import one.nio.http.Response;
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import ru.mail.polis.Files;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.TimestampRecord;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
@@ -78,13 +85,13 @@ class ThreeNodeTest extends ClusterTestBase {
     void afterEach() throws IOException {
         stop(0, storage0);
         dao0.close();
-        Files.recursiveDelete(data0);
+        deleteStorage(data0);
         stop(1, storage1);
         dao1.close();
-        Files.recursiveDelete(data1);
+        deleteStorage(data1);
         stop(2, storage2);
         dao2.close();
-        Files.recursiveDelete(data2);
+        deleteStorage(data2);
         endpoints = Collections.emptySet();
     }
 
@@ -116,6 +123,71 @@ class ThreeNodeTest extends ClusterTestBase {
         });
     }
 
+    @Test
+    void batch() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final int count = 20;
+            final String[] keys = new String[count];
+            final byte[][] values = new byte[count][];
+            final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            final ByteArrayOutputStream ids = new ByteArrayOutputStream();
+            for (int i = 0; i < count; i++) {
+                keys[i] = randomId();
+                values[i] = randomValue();
+                writeEntry(entries, keys[i].getBytes(StandardCharsets.UTF_8));
+                writeEntry(entries, values[i]);
+                writeEntry(ids, keys[i].getBytes(StandardCharsets.UTF_8));
+            }
+            final String absent = randomId();
+            writeEntry(ids, absent.getBytes(StandardCharsets.UTF_8));
+
+            // Every entry is acked by its own replicas
+            final Response written = upsertBatch(0, entries.toByteArray(), 2, 3);
+            assertEquals(201, written.getStatus());
+            final byte[] acks = new byte[count];
+            Arrays.fill(acks, (byte) 1);
+            assertArrayEquals(acks, written.getBody());
+
+            for (int i = 0; i < count; i++) {
+                final Response response = get(1, keys[i], 2, 3);
+                assertEquals(200, response.getStatus());
+                assertArrayEquals(values[i], response.getBody());
+            }
+
+            final Response read = getBatch(2, ids.toByteArray(), 2, 3);
+            assertEquals(200, read.getStatus());
+            final ByteBuffer body = ByteBuffer.wrap(read.getBody());
+            for (int i = 0; i <= count; i++) {
+                final byte[] key = new byte[body.getInt()];
+                body.get(key);
+                final int length = body.getInt();
+                if (i == count) {
+                    assertArrayEquals(absent.getBytes(StandardCharsets.UTF_8), key);
+                    assertEquals(-1, length);
+                } else {
+                    assertArrayEquals(keys[i].getBytes(StandardCharsets.UTF_8), key);
+                    final byte[] value = new byte[length];
+                    body.get(value);
+                    assertArrayEquals(values[i], value);
+                }
+            }
+            assertFalse(body.hasRemaining());
+
+            // The entries can't be acked by all the replicas without the stopped one
+            stop(0, storage0);
+            assertEquals(504, upsertBatch(1, entries.toByteArray(), 3, 3).getStatus());
+            assertEquals(504, getBatch(1, ids.toByteArray(), 3, 3).getStatus());
+        });
+    }
+
+    private static void writeEntry(
+            @NotNull final ByteArrayOutputStream stream,
+            @NotNull final byte[] entry) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(entry.length);
+        out.write(entry);
+    }
+
     @Test
     void overlapRead() {
         assertTimeoutPreemptively(TIMEOUT, () -> {
@@ -222,6 +294,72 @@ class ThreeNodeTest extends ClusterTestBase {
         });
     }
 
+    @Test
+    void readRepair() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final ByteBuffer id = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+            final byte[] value = randomValue();
+
+            // Write to the storages of nodes 0 and 2 only, so there is no hint to hand off to node 1
+            final TimestampRecord record = TimestampRecord.fromValue(ByteBuffer.wrap(value),
+                    System.currentTimeMillis());
+            ((DAORocksDB) dao0).writeRecordWithTimestamp(id, record);
+            ((DAORocksDB) dao2).writeRecordWithTimestamp(id, record);
+
+            // Read all the replicas to repair node 1
+            final long sent = metric(0, "repair.sent");
+            assertEquals(200, get(0, key, 3, 3).getStatus());
+
+            // Check the repair arriving in background
+            while (metric(0, "repair.sent") == sent) {
+                Thread.sleep(100);
+            }
+            assertArrayEquals(record.toBytes(), ((DAORocksDB) dao1).getRecordWithTimestamp(id).toBytes());
+
+            // Stop the other nodes
+            stop(0, storage0);
+            stop(2, storage2);
+
+            // Check
+            final Response response = get(1, key, 1, 3);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(value, response.getBody());
+        });
+    }
+
+    @Test
+    void hintedHandoff() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] value = randomValue();
+
+            // Stop node 1
+            stop(1, storage1);
+
+            // Insert, the coordinator keeps the hint for node 1
+            assertEquals(201, upsert(0, key, value, 2, 3).getStatus());
+
+            // Start node 1
+            storage1 = ServiceFactory.create(port1, dao1, endpoints);
+            start(1, storage1);
+
+            // Let the hint be handed off without any read of the key
+            while (metric(0, "hints.replayed") == 0) {
+                Thread.sleep(100);
+            }
+
+            // Stop the other nodes
+            stop(0, storage0);
+            stop(2, storage2);
+
+            // Check
+            final Response response = get(1, key, 1, 3);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(value, response.getBody());
+        });
+    }
+
     @Test
     void missedDelete() {
         assertTimeoutPreemptively(TIMEOUT, () -> {
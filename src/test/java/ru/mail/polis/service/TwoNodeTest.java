@@ -23,9 +23,13 @@ import org.junit.jupiter.api.Test;
 import ru.mail.polis.Files;
 import ru.mail.polis.dao.DAO;
 import ru.mail.polis.dao.DAOFactory;
+import ru.mail.polis.dao.DAORocksDB;
+import ru.mail.polis.dao.TimestampRecord;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
@@ -69,10 +73,10 @@ class TwoNodeTest extends ClusterTestBase {
     void afterEach() throws IOException {
         stop(0, storage0);
         dao0.close();
-        Files.recursiveDelete(data0);
+        deleteStorage(data0);
         stop(1, storage1);
         dao1.close();
-        Files.recursiveDelete(data1);
+        deleteStorage(data1);
         endpoints = Collections.emptySet();
     }
 
@@ -182,6 +186,30 @@ class TwoNodeTest extends ClusterTestBase {
         });
     }
 
+    @Test
+    void antiEntropy() {
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            final String key = randomId();
+            final byte[] value = randomValue();
+            final ByteBuffer id = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+
+            // Write to the storage of node 0 only, no request reaches node 1
+            ((DAORocksDB) dao0).upsertRecordWithTimestamp(id, ByteBuffer.wrap(value));
+
+            // Wait for the replicas to compare the trees
+            TimestampRecord record = ((DAORocksDB) dao1).getRecordWithTimestamp(id);
+            while (record.isEmpty()) {
+                Thread.sleep(100);
+                record = ((DAORocksDB) dao1).getRecordWithTimestamp(id);
+            }
+
+            // Check
+            final Response response = get(1, key, 1, 2);
+            assertEquals(200, response.getStatus());
+            assertArrayEquals(value, response.getBody());
+        });
+    }
+
     @Test
     void missedDelete() {
         assertTimeoutPreemptively(TIMEOUT, () -> {
@@ -0,0 +1,94 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for packing the entries into HTTP chunks with {@link ChunkBuffer}.
+ */
+class ChunkBufferTest extends TestBase {
+    @Test
+    void packsEntriesIntoOneChunk() {
+        final ChunkBuffer buffer = ChunkBuffer.acquire();
+        try {
+            put(buffer, "abc", false);
+            put(buffer, "de", false);
+            put(buffer, "f", false);
+            assertEquals("00000006\r\nabcdef\r\n", flip(buffer));
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    void startsSeparateChunks() {
+        final ChunkBuffer buffer = ChunkBuffer.acquire();
+        try {
+            put(buffer, "abc", true);
+            put(buffer, "de", true);
+            assertEquals("00000003\r\nabc\r\n00000002\r\nde\r\n", flip(buffer));
+
+            buffer.clear();
+            put(buffer, "0123456789abcdef", true);
+            assertEquals("00000010\r\n0123456789abcdef\r\n", flip(buffer));
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    void growsForLargeEntry() {
+        final ChunkBuffer buffer = ChunkBuffer.acquire();
+        try {
+            final byte[] large = randomBuffer(ChunkBuffer.CAPACITY + 1000).array();
+            assertTrue(buffer.begin(large.length, false));
+            buffer.put(large, 0, large.length);
+            final int length = buffer.flip();
+
+            final byte[] chunk = Arrays.copyOf(buffer.array(), length);
+            // 0x10000 + 1000 = 0x103e8
+            assertEquals("000103e8\r\n", new String(chunk, 0, 10, StandardCharsets.US_ASCII));
+            assertArrayEquals(large, Arrays.copyOfRange(chunk, 10, length - 2));
+            assertEquals("\r\n", new String(chunk, length - 2, 2, StandardCharsets.US_ASCII));
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    void refusesEntryOverRemaining() {
+        final ChunkBuffer buffer = ChunkBuffer.acquire();
+        try {
+            assertTrue(buffer.begin(ChunkBuffer.CAPACITY / 2, false));
+            buffer.put(new byte[ChunkBuffer.CAPACITY / 2], 0, ChunkBuffer.CAPACITY / 2);
+            assertFalse(buffer.begin(ChunkBuffer.CAPACITY / 2, false));
+
+            // The entry goes to the next buffer after the flush
+            buffer.flip();
+            buffer.clear();
+            assertTrue(buffer.begin(ChunkBuffer.CAPACITY / 2, false));
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static void put(@NotNull final ChunkBuffer buffer, @NotNull final String entry, final boolean separate) {
+        final byte[] bytes = entry.getBytes(StandardCharsets.US_ASCII);
+        assertTrue(buffer.begin(bytes.length, separate));
+        buffer.put(bytes, 0, bytes.length);
+    }
+
+    @NotNull
+    private static String flip(@NotNull final ChunkBuffer buffer) {
+        return new String(buffer.array(), 0, buffer.flip(), StandardCharsets.US_ASCII);
+    }
+}
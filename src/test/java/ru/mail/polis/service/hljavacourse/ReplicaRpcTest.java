@@ -0,0 +1,124 @@
+package ru.mail.polis.service.hljavacourse;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import ru.mail.polis.TestBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for decoding the {@link ReplicaRpc} frames.
+ */
+class ReplicaRpcTest extends TestBase {
+    @Test
+    void wholeFrames() throws IOException {
+        final byte[] first = randomValue();
+        final byte[] second = randomValue();
+        final byte[] stream = concat(
+                ReplicaRpc.frame(1, ReplicaRpc.GET, first),
+                ReplicaRpc.frame(2, ReplicaRpc.WRITES, second));
+
+        final List<Frame> frames = new ArrayList<>();
+        new ReplicaRpc.Decoder().feed(stream, stream.length, collect(frames));
+
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), 1, ReplicaRpc.GET, first);
+        assertFrame(frames.get(1), 2, ReplicaRpc.WRITES, second);
+    }
+
+    @Test
+    void framesSplitAtEveryByte() throws IOException {
+        final byte[] payload = randomValue();
+        final byte[] stream = concat(
+                ReplicaRpc.frame(3, ReplicaRpc.OK, payload),
+                ReplicaRpc.frame(4, ReplicaRpc.FAILED, new byte[0]));
+
+        final List<Frame> frames = new ArrayList<>();
+        final ReplicaRpc.Decoder decoder = new ReplicaRpc.Decoder();
+        for (final byte b : stream) {
+            decoder.feed(new byte[]{b}, 1, collect(frames));
+        }
+
+        assertEquals(2, frames.size());
+        assertFrame(frames.get(0), 3, ReplicaRpc.OK, payload);
+        assertFrame(frames.get(1), 4, ReplicaRpc.FAILED, new byte[0]);
+    }
+
+    @Test
+    void framesSplitAcrossReads() throws IOException {
+        final byte[] large = randomBuffer(100_000).array();
+        final byte[] small = randomValue();
+        final byte[] stream = concat(
+                ReplicaRpc.frame(5, ReplicaRpc.GET, small),
+                ReplicaRpc.frame(6, ReplicaRpc.WRITES, large),
+                ReplicaRpc.frame(7, ReplicaRpc.GET, small));
+
+        // The reads end inside the length, the header and the payload of the frames
+        final int first = Integer.BYTES + ReplicaRpc.HEADER + small.length;
+        final int[] cuts = {2, 9, 20, first + 3, first + 10, 50_000, stream.length - 3, stream.length};
+        final List<Frame> frames = new ArrayList<>();
+        final ReplicaRpc.Decoder decoder = new ReplicaRpc.Decoder();
+        int from = 0;
+        for (final int cut : cuts) {
+            final byte[] read = Arrays.copyOfRange(stream, from, cut);
+            decoder.feed(read, read.length, collect(frames));
+            from = cut;
+        }
+
+        assertEquals(3, frames.size());
+        assertFrame(frames.get(0), 5, ReplicaRpc.GET, small);
+        assertFrame(frames.get(1), 6, ReplicaRpc.WRITES, large);
+        assertFrame(frames.get(2), 7, ReplicaRpc.GET, small);
+    }
+
+    @Test
+    void malformedLength() {
+        final byte[] stream = {0, 0, 0, 1};
+        assertThrows(IOException.class,
+                () -> new ReplicaRpc.Decoder().feed(stream, stream.length, (id, code, payload) -> { }));
+    }
+
+    @NotNull
+    private static ReplicaRpc.FrameHandler collect(@NotNull final List<Frame> frames) {
+        return (id, code, payload) -> frames.add(new Frame(id, code, payload));
+    }
+
+    private static void assertFrame(
+            @NotNull final Frame frame,
+            final long id,
+            final byte code,
+            @NotNull final byte[] payload) {
+        assertEquals(id, frame.id);
+        assertEquals(code, frame.code);
+        assertArrayEquals(payload, frame.payload);
+    }
+
+    @NotNull
+    private static byte[] concat(@NotNull final byte[]... frames) throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (final byte[] frame : frames) {
+            stream.write(frame);
+        }
+        return stream.toByteArray();
+    }
+
+    private static final class Frame {
+        private final long id;
+        private final byte code;
+        private final byte[] payload;
+
+        Frame(final long id, final byte code, @NotNull final byte[] payload) {
+            this.id = id;
+            this.code = code;
+            this.payload = payload;
+        }
+    }
+}